@@ -0,0 +1,103 @@
+package com.krrrr38.metrics.fluency;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.komamitsu.fluency.Fluency;
+import org.komamitsu.fluency.buffer.PackedForwardBuffer;
+import org.komamitsu.fluency.flusher.SyncFlusher;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricAttribute;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+/**
+ * Shared fixtures of the benchmarks.
+ */
+final class Benchmarks {
+    private Benchmarks() {
+    }
+
+    /**
+     * Returns a {@link Fluency} which buffers like the default one but flushes synchronously into the given
+     * sender.
+     */
+    static Fluency fluency(InMemorySender sender) {
+        return new Fluency.Builder(sender)
+                .setBufferConfig(new PackedForwardBuffer.Config().setMaxBufferSize(512 * 1024 * 1024L))
+                .setFlusherConfig(new SyncFlusher.Config().setBufferOccupancyThreshold(0.1f))
+                .build();
+    }
+
+    /**
+     * Returns a registry with the given number of metrics.
+     *
+     * @param size the number of metrics
+     * @param mix "balanced" for an equal share of each metric type, or the only type of all metrics
+     * ("gauges", "counters", "histograms", "meters" or "timers")
+     */
+    static MetricRegistry registry(int size, String mix) {
+        final MetricRegistry registry = new MetricRegistry();
+        for (int i = 0; i < size; i++) {
+            final String type = "balanced".equals(mix) ? TYPES[i % TYPES.length] : mix;
+            final String name = MetricRegistry.name("app", type, "metric" + i);
+            addMetric(registry, type, name, i);
+        }
+        return registry;
+    }
+
+    private static final String[] TYPES = { "gauges", "counters", "histograms", "meters", "timers" };
+
+    private static void addMetric(MetricRegistry registry, String type, String name, final int seed) {
+        if ("gauges".equals(type)) {
+            registry.register(name, new Gauge<Long>() {
+                @Override
+                public Long getValue() {
+                    return (long) seed;
+                }
+            });
+        } else if ("counters".equals(type)) {
+            registry.counter(name).inc(seed);
+        } else if ("histograms".equals(type)) {
+            final Histogram histogram = registry.histogram(name);
+            for (int i = 0; i < 100; i++) {
+                histogram.update(seed + i);
+            }
+        } else if ("meters".equals(type)) {
+            registry.meter(name).mark(seed);
+        } else if ("timers".equals(type)) {
+            final Timer timer = registry.timer(name);
+            for (int i = 0; i < 100; i++) {
+                timer.update(seed + i, TimeUnit.MICROSECONDS);
+            }
+        } else {
+            throw new IllegalArgumentException("Unknown metric type: " + type);
+        }
+    }
+
+    /**
+     * Returns the disabled attributes of the given name: "none", "percentiles" (all but p99) or
+     * "count-p99" (all but count and p99).
+     */
+    static Set<MetricAttribute> disabledAttributes(String name) {
+        if ("none".equals(name)) {
+            return Collections.emptySet();
+        }
+        final EnumSet<MetricAttribute> disabled;
+        if ("percentiles".equals(name)) {
+            disabled = EnumSet.of(MetricAttribute.P50, MetricAttribute.P75, MetricAttribute.P95,
+                                  MetricAttribute.P98, MetricAttribute.P999);
+        } else if ("count-p99".equals(name)) {
+            disabled = EnumSet.allOf(MetricAttribute.class);
+            disabled.remove(MetricAttribute.COUNT);
+            disabled.remove(MetricAttribute.P99);
+        } else {
+            throw new IllegalArgumentException("Unknown disabled attributes: " + name);
+        }
+        return disabled;
+    }
+}
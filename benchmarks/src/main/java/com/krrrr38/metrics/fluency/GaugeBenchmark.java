@@ -0,0 +1,102 @@
+package com.krrrr38.metrics.fluency;
+
+import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Measures the cost per gauge of reporting typical gauge value types, with each policy for non-scalar values.
+ * All gauges are batched into one record, so that the cost of encoding the values is not hidden by Fluency
+ * flushing a buffer per tag.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GaugeBenchmark {
+    private static final int SIZE = 1000;
+
+    @Param({ "int", "long", "double", "big-decimal", "atomic-long", "boolean", "string", "map" })
+    private String valueType;
+
+    @Param({ "RAW", "FLATTEN" })
+    private NonScalarGaugePolicy policy;
+
+    private FluencyReporter reporter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final MetricRegistry registry = new MetricRegistry();
+        for (int i = 0; i < SIZE; i++) {
+            final Object value = value(i);
+            registry.register(MetricRegistry.name("app", "gauges", "gauge" + i), new Gauge<Object>() {
+                @Override
+                public Object getValue() {
+                    return value;
+                }
+            });
+        }
+        reporter = FluencyReporter.forRegistry(registry)
+                                  .nonScalarGauges(policy)
+                                  .batchSize(SIZE)
+                                  .build(Benchmarks.fluency(new InMemorySender()));
+    }
+
+    private Object value(int seed) {
+        if ("int".equals(valueType)) {
+            return seed;
+        } else if ("long".equals(valueType)) {
+            return (long) seed << 20;
+        } else if ("double".equals(valueType)) {
+            return seed / 7.0;
+        } else if ("big-decimal".equals(valueType)) {
+            return BigDecimal.valueOf(seed, 2);
+        } else if ("atomic-long".equals(valueType)) {
+            return new AtomicLong(seed);
+        } else if ("boolean".equals(valueType)) {
+            return seed % 2 == 0;
+        } else if ("string".equals(valueType)) {
+            return "state" + seed % 4;
+        } else if ("map".equals(valueType)) {
+            final Map<String, Object> map = new LinkedHashMap<String, Object>();
+            map.put("used", (long) seed);
+            map.put("max", 1024L);
+            map.put("ratio", seed / 1024.0);
+            return map;
+        }
+        throw new IllegalArgumentException("Unknown value type: " + valueType);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        reporter.stop();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    public void report() {
+        reporter.report();
+    }
+}
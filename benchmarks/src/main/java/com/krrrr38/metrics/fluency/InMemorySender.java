@@ -0,0 +1,43 @@
+package com.krrrr38.metrics.fluency;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.komamitsu.fluency.sender.Sender;
+
+/**
+ * A {@link Sender} which discards the sent chunks and only counts their bytes, so benchmarks do not need a
+ * fluentd.
+ */
+public class InMemorySender extends Sender {
+    private final AtomicLong sentBytes = new AtomicLong();
+
+    public InMemorySender() {
+        super(new Sender.Config());
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return true;
+    }
+
+    @Override
+    protected void sendInternal(List<ByteBuffer> buffers, byte[] ackToken) throws IOException {
+        long bytes = 0;
+        for (ByteBuffer buffer : buffers) {
+            bytes += buffer.remaining();
+            buffer.position(buffer.limit());
+        }
+        sentBytes.addAndGet(bytes);
+    }
+
+    @Override
+    public void close() throws IOException {
+    }
+
+    public long getSentBytes() {
+        return sentBytes.get();
+    }
+}
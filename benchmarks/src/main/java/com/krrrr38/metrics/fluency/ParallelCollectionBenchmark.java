@@ -0,0 +1,72 @@
+package com.krrrr38.metrics.fluency;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SlidingTimeWindowReservoir;
+import com.codahale.metrics.Timer;
+
+/**
+ * Measures how reporting timers with sliding time window reservoirs scales with the number of collection
+ * threads. Zero threads collects on the reporting thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParallelCollectionBenchmark {
+    @Param({ "20000" })
+    private int size;
+
+    @Param({ "0", "1", "2", "4", "8" })
+    private int threads;
+
+    private ForkJoinPool pool;
+    private FluencyReporter reporter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final MetricRegistry registry = new MetricRegistry();
+        for (int i = 0; i < size; i++) {
+            final Timer timer = new Timer(new SlidingTimeWindowReservoir(1, TimeUnit.HOURS));
+            for (int j = 0; j < 200; j++) {
+                timer.update(i + j, TimeUnit.MICROSECONDS);
+            }
+            registry.register(MetricRegistry.name("app", "timers", "metric" + i), timer);
+        }
+        pool = threads > 0 ? new ForkJoinPool(threads) : null;
+        reporter = FluencyReporter.forRegistry(registry)
+                                  .collectOn(pool)
+                                  .build(Benchmarks.fluency(new InMemorySender()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        reporter.stop();
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    @Benchmark
+    public void report() {
+        reporter.report();
+    }
+}
@@ -0,0 +1,102 @@
+package com.krrrr38.metrics.fluency;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.codahale.metrics.ExponentiallyDecayingReservoir;
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.UniformReservoir;
+
+/**
+ * Measures computing quantiles of a snapshot with a {@link Snapshot#getValue(double)} call per quantile
+ * versus one pass over {@link Snapshot#getValues()}, for the default 1028-sample reservoirs and a 100k-sample
+ * uniform reservoir. The snapshot is taken once, so only the quantile lookups are measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QuantileBenchmark {
+    private static final double[] QUANTILES = { 0.5, 0.75, 0.9, 0.95, 0.98, 0.99, 0.999, 0.9999 };
+
+    @Param({ "uniform-1028", "exponentially-decaying-1028", "uniform-100000" })
+    private String reservoir;
+
+    private Snapshot snapshot;
+    private Quantiles quantiles;
+    private MetricRecord record;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final Reservoir reservoir = reservoir();
+        final Random random = new Random(1);
+        for (int i = 0; i < 1000000; i++) {
+            reservoir.update((long) Math.exp(random.nextGaussian() * 2 + 10));
+        }
+        snapshot = reservoir.getSnapshot();
+        quantiles = new Quantiles(QUANTILES);
+        record = new MetricRecord();
+    }
+
+    private Reservoir reservoir() {
+        if ("uniform-1028".equals(reservoir)) {
+            return new UniformReservoir();
+        } else if ("exponentially-decaying-1028".equals(reservoir)) {
+            return new ExponentiallyDecayingReservoir();
+        } else if ("uniform-100000".equals(reservoir)) {
+            return new UniformReservoir(100000);
+        }
+        throw new IllegalArgumentException("Unknown reservoir: " + reservoir);
+    }
+
+    @Benchmark
+    public double perQuantile() {
+        double sum = 0;
+        for (double quantile : QUANTILES) {
+            sum += snapshot.getValue(quantile);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double singlePass() {
+        final long[] values = snapshot.getValues();
+        double sum = 0;
+        for (double quantile : QUANTILES) {
+            final double pos = quantile * (values.length + 1);
+            final int index = (int) pos;
+            if (index < 1) {
+                sum += values[0];
+            } else if (index >= values.length) {
+                sum += values[values.length - 1];
+            } else {
+                final double lower = values[index - 1];
+                sum += lower + (pos - index) * (values[index] - lower);
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public MetricRecord quantiles() {
+        record.clear();
+        quantiles.put(record, snapshot, 1);
+        return record;
+    }
+}
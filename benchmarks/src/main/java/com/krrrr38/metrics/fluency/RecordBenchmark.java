@@ -0,0 +1,88 @@
+package com.krrrr38.metrics.fluency;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.codahale.metrics.MetricAttribute;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Measures building and encoding a timer record as Fluency does, with a new {@link HashMap} per record
+ * versus a reused {@link MetricRecord}. Run with {@code -prof gc} to compare allocations per record.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecordBenchmark {
+    private static final MetricAttribute[] ATTRIBUTES = MetricAttribute.values();
+
+    private ObjectMapper objectMapper;
+    private MetricRecord record;
+    private long timestamp;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        objectMapper = new ObjectMapper(new MessagePackFactory());
+        record = new MetricRecord();
+        timestamp = System.currentTimeMillis() / 1000;
+    }
+
+    @Benchmark
+    public Map<String, Object> hashMap() {
+        final Map<String, Object> data = new HashMap<String, Object>();
+        for (MetricAttribute attribute : ATTRIBUTES) {
+            if (attribute == MetricAttribute.COUNT) {
+                data.put(attribute.getCode(), 42L);
+            } else {
+                data.put(attribute.getCode(), attribute.ordinal() * 1.5);
+            }
+        }
+        return data;
+    }
+
+    @Benchmark
+    public Map<String, Object> metricRecord() {
+        record.clear();
+        for (MetricAttribute attribute : ATTRIBUTES) {
+            if (attribute == MetricAttribute.COUNT) {
+                record.put(attribute, 42L);
+            } else {
+                record.put(attribute, attribute.ordinal() * 1.5);
+            }
+        }
+        return record;
+    }
+
+    @Benchmark
+    public byte[] encodeHashMap() throws IOException {
+        return encode(hashMap());
+    }
+
+    @Benchmark
+    public byte[] encodeMetricRecord() throws IOException {
+        return encode(metricRecord());
+    }
+
+    private byte[] encode(Map<String, Object> data) throws IOException {
+        return objectMapper.writeValueAsBytes(Arrays.asList(timestamp, data));
+    }
+}
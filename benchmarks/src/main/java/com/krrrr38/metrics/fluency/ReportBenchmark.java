@@ -0,0 +1,64 @@
+package com.krrrr38.metrics.fluency;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Measures a whole reporting cycle, from collecting the registry to Fluency's buffer, including the
+ * per-metric path versus the batched path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReportBenchmark {
+    @Param({ "1000", "10000", "100000" })
+    private int size;
+
+    @Param({ "balanced" })
+    private String mix;
+
+    @Param({ "none", "percentiles" })
+    private String disabledAttributes;
+
+    @Param({ "0", "1000" })
+    private int batchSize;
+
+    private FluencyReporter reporter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final MetricRegistry registry = Benchmarks.registry(size, mix);
+        reporter = FluencyReporter.forRegistry(registry)
+                                  .disabledMetricAttributes(Benchmarks.disabledAttributes(disabledAttributes))
+                                  .batchSize(batchSize)
+                                  .build(Benchmarks.fluency(new InMemorySender()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        reporter.stop();
+    }
+
+    @Benchmark
+    public void report() {
+        reporter.report();
+    }
+}
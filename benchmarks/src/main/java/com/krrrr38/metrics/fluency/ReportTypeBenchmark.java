@@ -0,0 +1,58 @@
+package com.krrrr38.metrics.fluency;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost per metric of reporting each metric type, with all attributes or only count and p99
+ * enabled.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReportTypeBenchmark {
+    private static final int SIZE = 1000;
+
+    @Param({ "gauges", "counters", "histograms", "meters", "timers" })
+    private String type;
+
+    @Param({ "none", "count-p99" })
+    private String disabledAttributes;
+
+    private FluencyReporter reporter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        reporter = FluencyReporter.forRegistry(Benchmarks.registry(SIZE, type))
+                                  .disabledMetricAttributes(Benchmarks.disabledAttributes(disabledAttributes))
+                                  .build(Benchmarks.fluency(new InMemorySender()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        reporter.stop();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SIZE)
+    public void report() {
+        reporter.report();
+    }
+}
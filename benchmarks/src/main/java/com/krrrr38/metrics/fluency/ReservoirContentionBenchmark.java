@@ -0,0 +1,96 @@
+package com.krrrr38.metrics.fluency;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.codahale.metrics.ExponentiallyDecayingReservoir;
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.SlidingTimeWindowArrayReservoir;
+import com.codahale.metrics.UniformReservoir;
+
+/**
+ * Measures recording into a reservoir from many writer threads while a reporter thread takes a snapshot
+ * every {@code snapshotIntervalMillis}, as a {@link FluencyReporter} does per report. Change the number of
+ * writers with {@code -t}, from 1 to 64 as in the README.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class ReservoirContentionBenchmark {
+    @Param({ "exponentially-decaying", "sliding-time-window-array", "uniform", "interval", "striped" })
+    private String reservoirType;
+
+    @Param({ "10" })
+    private long snapshotIntervalMillis;
+
+    private Reservoir reservoir;
+    private Thread reporter;
+    private volatile boolean running;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        reservoir = reservoir();
+        running = true;
+        reporter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (running) {
+                    reservoir.getSnapshot();
+                    try {
+                        Thread.sleep(snapshotIntervalMillis);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }, "reporter");
+        reporter.setDaemon(true);
+        reporter.start();
+    }
+
+    private Reservoir reservoir() {
+        if ("exponentially-decaying".equals(reservoirType)) {
+            return new ExponentiallyDecayingReservoir();
+        } else if ("sliding-time-window-array".equals(reservoirType)) {
+            return new SlidingTimeWindowArrayReservoir(1, TimeUnit.MINUTES);
+        } else if ("uniform".equals(reservoirType)) {
+            return new UniformReservoir();
+        } else if ("interval".equals(reservoirType)) {
+            return new IntervalReservoir();
+        } else if ("striped".equals(reservoirType)) {
+            return new StripedReservoir();
+        }
+        throw new IllegalArgumentException("Unknown reservoir type: " + reservoirType);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        running = false;
+        reporter.interrupt();
+        reporter.join();
+    }
+
+    @Benchmark
+    public void update() {
+        reservoir.update(ThreadLocalRandom.current().nextLong(1000000));
+    }
+}
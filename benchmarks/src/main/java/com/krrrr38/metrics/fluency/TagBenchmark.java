@@ -0,0 +1,49 @@
+package com.krrrr38.metrics.fluency;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Measures building a prefixed tag per metric versus looking it up in {@link TagCache}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TagBenchmark {
+    private static final String PREFIX = "metrics";
+
+    private final String name = MetricRegistry.name("app", "timers", "metric42");
+    private TagCache tags;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        tags = new TagCache(PREFIX);
+        tags.onCounterAdded(name, null);
+    }
+
+    @Benchmark
+    public String build() {
+        return MetricRegistry.name(PREFIX, name);
+    }
+
+    @Benchmark
+    public String cached() {
+        return tags.tag(name);
+    }
+}
@@ -0,0 +1,290 @@
+package com.krrrr38.metrics.fluency;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.msgpack.core.MessagePack;
+import org.msgpack.core.MessagePacker;
+import org.msgpack.core.MessageUnpacker;
+import org.msgpack.value.ValueType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An in-process server of the fluentd Forward protocol (Message, Forward and PackedForward modes over TCP)
+ * which decodes and counts records, for load testing without a fluentd.
+ *
+ * Latency, slow reads and disconnects can be injected with {@link Config}.
+ */
+public class FakeFluentd implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(FakeFluentd.class);
+
+    /**
+     * The behavior of a {@link FakeFluentd}.
+     */
+    public static class Config {
+        private boolean ackResponseMode = false;
+        private long latencyMillis = 0;
+        private long readBytesPerSecond = 0;
+        private long disconnectEveryMessages = 0;
+
+        /**
+         * Reply an ack to messages which have a {@code chunk} option.
+         */
+        public Config setAckResponseMode(boolean ackResponseMode) {
+            this.ackResponseMode = ackResponseMode;
+            return this;
+        }
+
+        /**
+         * Sleep for the given time after each decoded message.
+         */
+        public Config setLatencyMillis(long latencyMillis) {
+            this.latencyMillis = latencyMillis;
+            return this;
+        }
+
+        /**
+         * Read at most the given number of bytes per second from each connection, or 0 for no limit.
+         */
+        public Config setReadBytesPerSecond(long readBytesPerSecond) {
+            this.readBytesPerSecond = readBytesPerSecond;
+            return this;
+        }
+
+        /**
+         * Close the connection after the given number of messages, or 0 to never disconnect.
+         */
+        public Config setDisconnectEveryMessages(long disconnectEveryMessages) {
+            this.disconnectEveryMessages = disconnectEveryMessages;
+            return this;
+        }
+    }
+
+    private final Config config;
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final AtomicLong records = new AtomicLong();
+    private final AtomicLong messages = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong connections = new AtomicLong();
+    private final long startNanos = System.nanoTime();
+    private volatile boolean closed;
+
+    public FakeFluentd(Config config) throws IOException {
+        this.config = config;
+        this.serverSocket = new ServerSocket();
+        this.serverSocket.bind(new InetSocketAddress("127.0.0.1", 0));
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        });
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public long getRecords() {
+        return records.get();
+    }
+
+    public long getMessages() {
+        return messages.get();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    public long getConnections() {
+        return connections.get();
+    }
+
+    /**
+     * Returns the average number of received bytes per second since the server started.
+     */
+    public double getBytesPerSecond() {
+        final long elapsed = System.nanoTime() - startNanos;
+        return elapsed == 0 ? 0 : bytes.get() * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                final Socket socket = serverSocket.accept();
+                connections.incrementAndGet();
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                });
+            } catch (IOException e) {
+                if (!closed) {
+                    LOGGER.warn("Unable to accept a connection", e);
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            final MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(new CountingInputStream(
+                    socket.getInputStream()));
+            final OutputStream out = socket.getOutputStream();
+            long served = 0;
+            while (!closed && unpacker.hasNext()) {
+                final String chunk = readMessage(unpacker);
+                messages.incrementAndGet();
+                if (config.ackResponseMode && chunk != null) {
+                    ack(out, chunk);
+                }
+                if (config.latencyMillis > 0) {
+                    Thread.sleep(config.latencyMillis);
+                }
+                if (config.disconnectEveryMessages > 0 && ++served >= config.disconnectEveryMessages) {
+                    break;
+                }
+            }
+        } catch (SocketException e) {
+            LOGGER.debug("Connection closed", e);
+        } catch (IOException e) {
+            LOGGER.warn("Unable to read a message", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                LOGGER.debug("Unable to close a connection", e);
+            }
+        }
+    }
+
+    /**
+     * Reads one message of any mode, counts its records and returns its {@code chunk} option (may be null).
+     */
+    private String readMessage(MessageUnpacker unpacker) throws IOException {
+        final int size = unpacker.unpackArrayHeader();
+        unpacker.unpackString();
+        final ValueType type = unpacker.getNextFormat().getValueType();
+        int read = 2;
+        if (type == ValueType.ARRAY) {
+            final int entries = unpacker.unpackArrayHeader();
+            for (int i = 0; i < entries; i++) {
+                unpacker.skipValue();
+            }
+            records.addAndGet(entries);
+        } else if (type == ValueType.BINARY || type == ValueType.STRING) {
+            final int length = type == ValueType.BINARY ? unpacker.unpackBinaryHeader()
+                                                        : unpacker.unpackRawStringHeader();
+            records.addAndGet(countEntries(unpacker.readPayload(length)));
+        } else {
+            unpacker.skipValue();
+            unpacker.skipValue();
+            records.incrementAndGet();
+            read++;
+        }
+        String chunk = null;
+        for (; read < size; read++) {
+            if (unpacker.getNextFormat().getValueType() == ValueType.MAP) {
+                final int options = unpacker.unpackMapHeader();
+                for (int i = 0; i < options; i++) {
+                    final String key = unpacker.unpackString();
+                    if ("chunk".equals(key)) {
+                        chunk = unpacker.unpackString();
+                    } else {
+                        unpacker.skipValue();
+                    }
+                }
+            } else {
+                unpacker.skipValue();
+            }
+        }
+        return chunk;
+    }
+
+    private static long countEntries(byte[] entries) throws IOException {
+        final MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(entries);
+        long count = 0;
+        while (unpacker.hasNext()) {
+            unpacker.skipValue();
+            count++;
+        }
+        return count;
+    }
+
+    private static void ack(OutputStream out, String chunk) throws IOException {
+        final MessagePacker packer = MessagePack.newDefaultPacker(out);
+        packer.packMapHeader(1);
+        packer.packString("ack");
+        packer.packString(chunk);
+        packer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        executor.shutdownNow();
+    }
+
+    /**
+     * Counts received bytes and throttles reads to {@link Config#setReadBytesPerSecond(long)}.
+     */
+    private final class CountingInputStream extends FilterInputStream {
+        private final long startNanos = System.nanoTime();
+        private long read;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            throttle();
+            final int n = super.read(b, off, len);
+            if (n > 0) {
+                read += n;
+                bytes.addAndGet(n);
+            }
+            return n;
+        }
+
+        private void throttle() throws IOException {
+            if (config.readBytesPerSecond <= 0) {
+                return;
+            }
+            final long allowedNanos = read * TimeUnit.SECONDS.toNanos(1) / config.readBytesPerSecond;
+            final long waitNanos = allowedNanos - (System.nanoTime() - startNanos);
+            if (waitNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(waitNanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while throttling", e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.krrrr38.metrics.fluency;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.komamitsu.fluency.Fluency;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.UniformReservoir;
+
+/**
+ * Drives a {@link FluencyReporter} with a large registry against a {@link FakeFluentd} and prints the
+ * sustained records/sec (fluentd records, one per batch when batching), metrics/sec and the end-to-end lag,
+ * i.e. the time from the start of a reporting cycle until all of its records were received.
+ *
+ * Configured with system properties:
+ * <ul>
+ * <li>{@code metrics}: the number of metrics (default 100000)</li>
+ * <li>{@code intervalMillis}: the reporting interval (default 1000)</li>
+ * <li>{@code durationSeconds}: the duration of the test (default 60)</li>
+ * <li>{@code batchSize}: see {@link FluencyReporter.Builder#batchSize(int)} (default 0)</li>
+ * <li>{@code ack}: use ack response mode (default false)</li>
+ * <li>{@code latencyMillis}, {@code readBytesPerSecond}, {@code disconnectEveryMessages}: see
+ * {@link FakeFluentd.Config}</li>
+ * </ul>
+ * e.g. {@code java -Dmetrics=50000 -cp benchmarks/target/benchmarks.jar com.krrrr38.metrics.fluency.LoadTest}
+ */
+public final class LoadTest {
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int metrics = Integer.getInteger("metrics", 100000);
+        final long intervalMillis = Long.getLong("intervalMillis", 1000);
+        final long durationSeconds = Long.getLong("durationSeconds", 60);
+        final int batchSize = Integer.getInteger("batchSize", 0);
+        final boolean ack = Boolean.getBoolean("ack");
+        final FakeFluentd.Config config = new FakeFluentd.Config()
+                .setAckResponseMode(ack)
+                .setLatencyMillis(Long.getLong("latencyMillis", 0))
+                .setReadBytesPerSecond(Long.getLong("readBytesPerSecond", 0))
+                .setDisconnectEveryMessages(Long.getLong("disconnectEveryMessages", 0));
+
+        final FakeFluentd fluentd = new FakeFluentd(config);
+        final Fluency fluency = Fluency.defaultFluency(
+                "127.0.0.1", fluentd.getPort(), new Fluency.Config().setAckResponseMode(ack));
+        final MetricRegistry self = new MetricRegistry();
+        final FluencyReporter reporter = FluencyReporter.forRegistry(Benchmarks.registry(metrics, "balanced"))
+                                                        .batchSize(batchSize)
+                                                        .instrumentedWith(self)
+                                                        .build(fluency);
+        try {
+            final long recordsPerCycle = calibrate(reporter, fluency, fluentd);
+            System.out.printf("metrics=%d, records per cycle=%d%n", metrics, recordsPerCycle);
+            run(reporter, fluentd, recordsPerCycle, intervalMillis, durationSeconds, self);
+        } finally {
+            reporter.stop();
+            fluentd.close();
+        }
+    }
+
+    /**
+     * Reports once and returns the number of records the server received for it.
+     */
+    private static long calibrate(FluencyReporter reporter, Fluency fluency, FakeFluentd fluentd)
+            throws Exception {
+        reporter.report();
+        fluency.flush();
+        long previous = -1;
+        long current = fluentd.getRecords();
+        while (current != previous) {
+            Thread.sleep(500);
+            previous = current;
+            current = fluentd.getRecords();
+        }
+        return current;
+    }
+
+    private static void run(
+            final FluencyReporter reporter,
+            FakeFluentd fluentd,
+            long recordsPerCycle,
+            long intervalMillis,
+            long durationSeconds,
+            MetricRegistry self
+    ) throws Exception {
+        final Queue<long[]> pending = new ArrayDeque<long[]>();
+        final Histogram lags = new Histogram(new UniformReservoir());
+        final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        final long baseRecords = fluentd.getRecords();
+        final long baseBytes = fluentd.getBytes();
+        final long baseMetrics = self.meter(MetricRegistry.name(FluencyReporter.class, "records")).getCount();
+        final long start = System.nanoTime();
+        final long end = start + TimeUnit.SECONDS.toNanos(durationSeconds);
+        long cycles = 0;
+        long nextCycle = start;
+        while (System.nanoTime() < end || !pending.isEmpty()) {
+            final long now = System.nanoTime();
+            if (now >= nextCycle && now < end) {
+                cycles++;
+                pending.add(new long[] { now, baseRecords + cycles * recordsPerCycle });
+                scheduler.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        reporter.report();
+                    }
+                });
+                nextCycle += TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+            }
+            final long received = fluentd.getRecords();
+            while (!pending.isEmpty() && received >= pending.peek()[1]) {
+                lags.update(TimeUnit.NANOSECONDS.toMillis(now - pending.poll()[0]));
+            }
+            if (now > end + TimeUnit.SECONDS.toNanos(30)) {
+                System.out.printf("gave up waiting for %d cycles%n", pending.size());
+                break;
+            }
+            Thread.sleep(5);
+        }
+        scheduler.shutdown();
+        final double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+        final Snapshot lag = lags.getSnapshot();
+        final Snapshot cycle = self.timer(MetricRegistry.name(FluencyReporter.class, "cycle")).getSnapshot();
+        System.out.printf("cycles=%d, records/sec=%.0f, metrics/sec=%.0f, bytes/sec=%.0f, connections=%d%n",
+                          cycles,
+                          (fluentd.getRecords() - baseRecords) / elapsedSeconds,
+                          (self.meter(MetricRegistry.name(FluencyReporter.class, "records")).getCount()
+                           - baseMetrics) / elapsedSeconds,
+                          (fluentd.getBytes() - baseBytes) / elapsedSeconds,
+                          fluentd.getConnections());
+        System.out.printf("lag ms: p50=%.0f, p99=%.0f, max=%d%n",
+                          lag.getMedian(), lag.get99thPercentile(), lag.getMax());
+        System.out.printf("report() ms: p50=%.1f, p99=%.1f, failures=%d%n",
+                          cycle.getMedian() / 1e6, cycle.get99thPercentile() / 1e6,
+                          self.meter(MetricRegistry.name(FluencyReporter.class, "failures")).getCount());
+    }
+}
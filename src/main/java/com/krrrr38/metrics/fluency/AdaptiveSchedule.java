@@ -0,0 +1,117 @@
+package com.krrrr38.metrics.fluency;
+
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Adapts the interval between reports to the wall-clock duration of each report, so that reporting stays under
+ * a target share of the interval as the registry grows.
+ *
+ * The reporter is still scheduled at its period, and ticks before the current interval has elapsed are skipped
+ * without walking the registry. When a report takes more than the target share of the interval, the interval
+ * is doubled up to the maximum, and low-priority attributes are dropped once it is at the maximum. When
+ * {@value #CHEAP_CYCLES} reports in a row take less than a quarter of the target share, attributes are
+ * restored first and then the interval is halved down to the period, so that the schedule does not flip back
+ * and forth between consecutive reports.
+ */
+final class AdaptiveSchedule {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AdaptiveSchedule.class);
+    /**
+     * The number of consecutive cheap reports before attributes are restored or the interval is shortened.
+     */
+    static final int CHEAP_CYCLES = 5;
+
+    private final double targetShare;
+    private final long maxIntervalNanos;
+    private final boolean degradable;
+    private long periodNanos;
+    private volatile long intervalNanos;
+    private volatile boolean degraded;
+    private boolean ran;
+    private long lastRunTick;
+    private int cheapCycles;
+
+    AdaptiveSchedule(double targetShare, long maxIntervalNanos, boolean degradable) {
+        this.targetShare = targetShare;
+        this.maxIntervalNanos = maxIntervalNanos;
+        this.degradable = degradable;
+    }
+
+    /**
+     * Resets the interval to the period the reporter is scheduled at.
+     *
+     * @param periodNanos the period of the reporter
+     */
+    void start(long periodNanos) {
+        this.periodNanos = periodNanos;
+        this.intervalNanos = periodNanos;
+    }
+
+    /**
+     * Returns whether a report should run at the given tick. Reports are always run before the reporter is
+     * scheduled.
+     *
+     * @param tick the current tick in nanoseconds
+     *
+     * @return false if the tick should be skipped
+     */
+    boolean isDue(long tick) {
+        return periodNanos == 0 || !ran || tick - lastRunTick >= intervalNanos - periodNanos / 2;
+    }
+
+    /**
+     * Adapts the interval to the duration of a report.
+     *
+     * @param startTick the tick the report started at
+     * @param elapsedNanos the duration of the report
+     */
+    void completed(long startTick, long elapsedNanos) {
+        ran = true;
+        lastRunTick = startTick;
+        if (periodNanos == 0) {
+            return;
+        }
+        final double share = (double) elapsedNanos / intervalNanos;
+        cheapCycles = share < targetShare / 4 ? cheapCycles + 1 : 0;
+        if (share > targetShare) {
+            if (intervalNanos < maxIntervalNanos) {
+                intervalNanos = Math.min(intervalNanos * 2, maxIntervalNanos);
+                LOGGER.info("Backed off the reporting interval: intervalMillis={}, share={}",
+                            intervalMillis(), share);
+            } else if (degradable && !degraded) {
+                degraded = true;
+                LOGGER.warn("Dropped low-priority attributes to keep up with the reporting interval: "
+                            + "intervalMillis={}, share={}", intervalMillis(), share);
+            }
+        } else if (cheapCycles >= CHEAP_CYCLES) {
+            cheapCycles = 0;
+            if (degraded) {
+                degraded = false;
+                LOGGER.info("Restored low-priority attributes: intervalMillis={}, share={}", intervalMillis(), share);
+            } else if (intervalNanos > periodNanos) {
+                intervalNanos = Math.max(intervalNanos / 2, periodNanos);
+                LOGGER.info("Shortened the reporting interval: intervalMillis={}, share={}", intervalMillis(), share);
+            }
+        }
+    }
+
+    /**
+     * Returns whether low-priority attributes are dropped.
+     *
+     * @return true if low-priority attributes are dropped
+     */
+    boolean degraded() {
+        return degraded;
+    }
+
+    /**
+     * Returns the current interval between reports.
+     *
+     * @return the current interval in milliseconds
+     */
+    long intervalMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(intervalNanos);
+    }
+}
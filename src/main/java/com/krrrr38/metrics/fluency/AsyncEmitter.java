@@ -0,0 +1,196 @@
+package com.krrrr38.metrics.fluency;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Meter;
+
+/**
+ * A {@link RecordSink} which hands records over to a dedicated thread through a bounded lock-free queue, so
+ * that reporting never waits for Fluency (except with {@link OverflowPolicy#BLOCK}).
+ * The records must be owned by this sink once emitted, i.e. must not be reused by the caller.
+ *
+ * The dedicated thread sends records with an {@link EmitPolicy}, starting a new cycle of its circuit breaker
+ * whenever the timestamp of the records changes, i.e. for each report. Records which it fails to send are
+ * counted as dropped, like records which do not fit into the queue.
+ * The dedicated thread is started by {@link #start()}, or by the first emitted record when records are
+ * reported without starting the reporter, so that an emitter which is never used does not leave a thread behind.
+ */
+final class AsyncEmitter implements RecordSink {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AsyncEmitter.class);
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final EmitPolicy emitPolicy;
+    private final int capacity;
+    private final OverflowPolicy overflowPolicy;
+    private final long blockTimeoutNanos;
+    private final Meter dropped;
+    private final Meter failures;
+    private final DropListener dropListener;
+    private final Queue<PendingRecord> queue = new ConcurrentLinkedQueue<PendingRecord>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final Thread drainer;
+    private final AtomicBoolean started = new AtomicBoolean();
+    private volatile boolean closed;
+
+    AsyncEmitter(
+            EmitPolicy emitPolicy,
+            int capacity,
+            OverflowPolicy overflowPolicy,
+            long blockTimeoutNanos,
+            Meter dropped,
+            Meter failures,
+            DropListener dropListener
+    ) {
+        this.emitPolicy = emitPolicy;
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+        this.blockTimeoutNanos = blockTimeoutNanos;
+        this.dropped = dropped;
+        this.failures = failures;
+        this.dropListener = dropListener;
+        this.drainer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "fluency-reporter-drainer");
+        this.drainer.setDaemon(true);
+    }
+
+    /**
+     * Starts the dedicated thread unless it is already started.
+     */
+    void start() {
+        if (started.compareAndSet(false, true)) {
+            drainer.start();
+        }
+    }
+
+    @Override
+    public void emit(String tag, long timestamp, Map<String, Object> data) {
+        if (size.get() >= capacity && !makeRoom()) {
+            dropped.mark();
+            dropListener.dropped(data);
+            return;
+        }
+        queue.add(new PendingRecord(tag, timestamp, data));
+        size.incrementAndGet();
+        if (started.get()) {
+            LockSupport.unpark(drainer);
+        } else {
+            start();
+        }
+    }
+
+    /**
+     * Makes room for a new record according to the overflow policy.
+     *
+     * @return false if the new record should be dropped
+     */
+    private boolean makeRoom() {
+        switch (overflowPolicy) {
+            case DROP_OLDEST:
+                final PendingRecord oldest = queue.poll();
+                if (oldest != null) {
+                    size.decrementAndGet();
+                    dropped.mark();
+                    dropListener.dropped(oldest.data);
+                }
+                return true;
+            case BLOCK:
+                final long deadline = System.nanoTime() + blockTimeoutNanos;
+                while (size.get() >= capacity) {
+                    if (System.nanoTime() - deadline >= 0 || closed) {
+                        return false;
+                    }
+                    LockSupport.parkNanos(BLOCK_PARK_NANOS);
+                }
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void drain() {
+        long lastTimestamp = Long.MIN_VALUE;
+        while (true) {
+            final PendingRecord record = queue.poll();
+            if (record == null) {
+                if (closed) {
+                    return;
+                }
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                continue;
+            }
+            size.decrementAndGet();
+            if (record.timestamp != lastTimestamp) {
+                emitPolicy.nextCycle();
+                lastTimestamp = record.timestamp;
+            }
+            boolean sent;
+            try {
+                sent = emitPolicy.send(record.tag, record.timestamp, record.data);
+            } catch (RuntimeException e) {
+                failures.mark();
+                LOGGER.warn("Unable to report to fluency: tag={}, message={}", record.tag, e.getMessage(), e);
+                sent = false;
+            }
+            if (!sent) {
+                dropped.mark();
+                dropListener.dropped(record.data);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of queued records.
+     *
+     * @return the number of queued records
+     */
+    int size() {
+        return size.get();
+    }
+
+    /**
+     * Stops accepting records and waits up to the given time for the queued records to be sent.
+     *
+     * @param timeoutMillis the maximum time to wait
+     */
+    void close(long timeoutMillis) {
+        closed = true;
+        if (!started.get()) {
+            return;
+        }
+        LockSupport.unpark(drainer);
+        try {
+            drainer.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (drainer.isAlive()) {
+            LOGGER.warn("Gave up sending queued records: size={}", size.get());
+        }
+    }
+
+    private static final class PendingRecord {
+        private final String tag;
+        private final long timestamp;
+        private final Map<String, Object> data;
+
+        private PendingRecord(String tag, long timestamp, Map<String, Object> data) {
+            this.tag = tag;
+            this.timestamp = timestamp;
+            this.data = data;
+        }
+    }
+}
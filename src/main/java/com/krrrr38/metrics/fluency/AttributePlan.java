@@ -0,0 +1,88 @@
+package com.krrrr38.metrics.fluency;
+
+import static com.codahale.metrics.MetricAttribute.COUNT;
+import static com.codahale.metrics.MetricAttribute.M15_RATE;
+import static com.codahale.metrics.MetricAttribute.M1_RATE;
+import static com.codahale.metrics.MetricAttribute.M5_RATE;
+import static com.codahale.metrics.MetricAttribute.MAX;
+import static com.codahale.metrics.MetricAttribute.MEAN;
+import static com.codahale.metrics.MetricAttribute.MEAN_RATE;
+import static com.codahale.metrics.MetricAttribute.MIN;
+import static com.codahale.metrics.MetricAttribute.P50;
+import static com.codahale.metrics.MetricAttribute.P75;
+import static com.codahale.metrics.MetricAttribute.P95;
+import static com.codahale.metrics.MetricAttribute.P98;
+import static com.codahale.metrics.MetricAttribute.P99;
+import static com.codahale.metrics.MetricAttribute.P999;
+import static com.codahale.metrics.MetricAttribute.STDDEV;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import com.codahale.metrics.MetricAttribute;
+import com.codahale.metrics.Snapshot;
+
+/**
+ * The attributes reported for each metric type, compiled once from the disabled attributes so that reporting
+ * only computes the values which are sent.
+ */
+final class AttributePlan {
+    private static final MetricAttribute[] TIMER_ATTRIBUTES = {
+            MAX, MEAN, MIN, STDDEV, P50, P75, P95, P98, P99, P999, COUNT, M1_RATE, M5_RATE, M15_RATE, MEAN_RATE
+    };
+    private static final MetricAttribute[] METERED_ATTRIBUTES = {
+            COUNT, M1_RATE, M5_RATE, M15_RATE, MEAN_RATE
+    };
+    private static final MetricAttribute[] HISTOGRAM_ATTRIBUTES = {
+            COUNT, MAX, MEAN, MIN, STDDEV, P50, P75, P95, P98, P99, P999
+    };
+
+    final boolean counterEnabled;
+    final MetricAttribute[] timerAttributes;
+    final MetricAttribute[] meteredAttributes;
+    final MetricAttribute[] histogramAttributes;
+    final boolean timerSnapshotEnabled;
+    final boolean histogramSnapshotEnabled;
+
+    AttributePlan(Set<MetricAttribute> disabled) {
+        this.counterEnabled = !disabled.contains(COUNT);
+        this.timerAttributes = enabledAttributes(TIMER_ATTRIBUTES, disabled);
+        this.meteredAttributes = enabledAttributes(METERED_ATTRIBUTES, disabled);
+        this.histogramAttributes = enabledAttributes(HISTOGRAM_ATTRIBUTES, disabled);
+        this.timerSnapshotEnabled = requiresSnapshot(timerAttributes);
+        this.histogramSnapshotEnabled = requiresSnapshot(histogramAttributes);
+    }
+
+    /**
+     * Returns the attributes of a metric type which are not disabled.
+     */
+    private static MetricAttribute[] enabledAttributes(
+            MetricAttribute[] attributes, Set<MetricAttribute> disabled
+    ) {
+        final List<MetricAttribute> enabled = new ArrayList<MetricAttribute>(attributes.length);
+        for (MetricAttribute attribute : attributes) {
+            if (!disabled.contains(attribute)) {
+                enabled.add(attribute);
+            }
+        }
+        return enabled.toArray(new MetricAttribute[enabled.size()]);
+    }
+
+    /**
+     * Returns whether any of the attributes is read from a {@link Snapshot}, because taking a snapshot copies
+     * (and for some reservoirs sorts) the whole reservoir.
+     */
+    private static boolean requiresSnapshot(MetricAttribute[] attributes) {
+        for (MetricAttribute attribute : attributes) {
+            if (attribute != COUNT && !isRate(attribute)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isRate(MetricAttribute attribute) {
+        return attribute == M1_RATE || attribute == M5_RATE || attribute == M15_RATE || attribute == MEAN_RATE;
+    }
+}
@@ -0,0 +1,54 @@
+package com.krrrr38.metrics.fluency;
+
+import java.util.Arrays;
+
+import com.codahale.metrics.Snapshot;
+
+/**
+ * Cumulative counts of snapshot values at or below fixed bucket boundaries ({@code le}), for alerting on the
+ * ratio of values within a latency objective.
+ *
+ * Counts are an array in ascending boundary order followed by the number of all values ({@code +Inf}), so
+ * that a record carries one array instead of a key per bucket. They are computed in one merge pass over the
+ * sorted values of the snapshot read with {@link SnapshotValues}, which honours the weights of weighted
+ * snapshots, and count the samples of the reservoir rather than every update.
+ */
+final class Buckets {
+    private final double[] boundaries;
+
+    Buckets(double[] boundaries) {
+        final double[] sorted = boundaries.clone();
+        Arrays.sort(sorted);
+        int distinct = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                sorted[distinct++] = sorted[i];
+            }
+        }
+        this.boundaries = Arrays.copyOf(sorted, distinct);
+    }
+
+    /**
+     * Counts the values of the snapshot multiplied by the given factor at or below each boundary.
+     *
+     * @param snapshot the snapshot to count
+     * @param factor the factor to convert values by, e.g. from nanoseconds to the duration unit
+     *
+     * @return the cumulative counts of each boundary followed by the number of values
+     */
+    long[] count(Snapshot snapshot, double factor) {
+        final long[] values = SnapshotValues.of(snapshot);
+        final long[] counts = new long[boundaries.length + 1];
+        int bucket = 0;
+        for (int i = 0; i < values.length && bucket < boundaries.length; i++) {
+            final double value = values[i] * factor;
+            while (bucket < boundaries.length && value > boundaries[bucket]) {
+                counts[bucket++] = i;
+            }
+        }
+        while (bucket < counts.length) {
+            counts[bucket++] = values.length;
+        }
+        return counts;
+    }
+}
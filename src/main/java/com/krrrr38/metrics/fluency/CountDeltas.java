@@ -0,0 +1,81 @@
+package com.krrrr38.metrics.fluency;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.codahale.metrics.MetricRegistryListener;
+
+/**
+ * The last reported counts of counters, meters, histograms and timers keyed by metric name.
+ *
+ * Counts are kept in mutable holders so that updating them on every report does not box.
+ * The deltas of records which were dropped instead of sent are carried forward into the next delta of their
+ * metric, so that the sum of the reported deltas still adds up to the count.
+ * Entries are evicted when their metrics are removed from the registry.
+ */
+final class CountDeltas extends MetricRegistryListener.Base {
+    private final ConcurrentMap<String, LastCount> lastCounts = new ConcurrentHashMap<String, LastCount>();
+
+    /**
+     * Records the given count as the last reported count of the metric and returns the difference to the
+     * previous one, plus the deltas of dropped records. The first delta of a metric is its count.
+     *
+     * @param name the metric name
+     * @param count the current count of the metric
+     *
+     * @return the count change since the previous call for the metric
+     */
+    long update(String name, long count) {
+        LastCount last = lastCounts.get(name);
+        if (last == null) {
+            last = new LastCount();
+            final LastCount existing = lastCounts.putIfAbsent(name, last);
+            if (existing != null) {
+                last = existing;
+            }
+        }
+        final long delta = count - last.count + (last.carried.get() != 0 ? last.carried.getAndSet(0) : 0);
+        last.count = count;
+        return delta;
+    }
+
+    /**
+     * Carries the delta of a dropped record forward into the next delta of the metric. It may be called from
+     * any thread.
+     *
+     * @param name the metric name
+     * @param delta the delta of the dropped record
+     */
+    void carry(String name, long delta) {
+        final LastCount last = lastCounts.get(name);
+        if (last != null) {
+            last.carried.addAndGet(delta);
+        }
+    }
+
+    @Override
+    public void onCounterRemoved(String name) {
+        lastCounts.remove(name);
+    }
+
+    @Override
+    public void onHistogramRemoved(String name) {
+        lastCounts.remove(name);
+    }
+
+    @Override
+    public void onMeterRemoved(String name) {
+        lastCounts.remove(name);
+    }
+
+    @Override
+    public void onTimerRemoved(String name) {
+        lastCounts.remove(name);
+    }
+
+    private static final class LastCount {
+        private long count;
+        private final AtomicLong carried = new AtomicLong();
+    }
+}
@@ -0,0 +1,16 @@
+package com.krrrr38.metrics.fluency;
+
+import java.util.Map;
+
+/**
+ * Notified of records which a {@link RecordSink} dropped after accepting them, so that the reporter can give
+ * their metrics another chance in the next report.
+ */
+interface DropListener {
+    /**
+     * Called with a record, or a batch of records keyed by metric name, which will not be sent.
+     *
+     * @param data the dropped record or batch
+     */
+    void dropped(Map<String, Object> data);
+}
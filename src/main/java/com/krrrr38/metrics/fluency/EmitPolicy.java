@@ -0,0 +1,109 @@
+package com.krrrr38.metrics.fluency;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Meter;
+
+/**
+ * Sends records to a sink, retrying a record which the sink rejects and dropping records while the circuit
+ * breaker is open, so that a failed record does not abort the rest of a reporting cycle.
+ *
+ * It is only used by the thread which sends the records: the reporting thread, or the drainer of an
+ * {@link AsyncEmitter}.
+ */
+final class EmitPolicy {
+    private static final Logger LOGGER = LoggerFactory.getLogger(EmitPolicy.class);
+
+    private final RecordSink sink;
+    private final int maxRetries;
+    private final long backoffNanos;
+    private final CircuitBreaker circuitBreaker;
+    private final Meter failures;
+    private final Object destination;
+
+    /**
+     * @param sink the sink to send records to
+     * @param maxRetries the maximum number of retries of a rejected record
+     * @param backoffNanos the time to wait between attempts
+     * @param circuitBreaker the circuit breaker of the sink
+     * @param failures the meter of records which still failed after retries
+     * @param destination the destination of the records, for logging
+     */
+    EmitPolicy(
+            RecordSink sink,
+            int maxRetries,
+            long backoffNanos,
+            CircuitBreaker circuitBreaker,
+            Meter failures,
+            Object destination
+    ) {
+        this.sink = sink;
+        this.maxRetries = maxRetries;
+        this.backoffNanos = backoffNanos;
+        this.circuitBreaker = circuitBreaker;
+        this.failures = failures;
+        this.destination = destination;
+    }
+
+    /**
+     * Sends a record, retrying it when the sink rejects it.
+     *
+     * @return false if the record was dropped, because it still failed or the circuit breaker is open
+     */
+    boolean send(String tag, long timestamp, Map<String, Object> data) {
+        if (!circuitBreaker.allows()) {
+            return false;
+        }
+        for (int attempt = 0; ; attempt++) {
+            try {
+                sink.emit(tag, timestamp, data);
+                circuitBreaker.succeeded();
+                return true;
+            } catch (IOException e) {
+                if (attempt < maxRetries && backOff()) {
+                    LOGGER.debug("Retrying to report to fluency: tag={}, attempt={}", tag, attempt + 1, e);
+                    continue;
+                }
+                failures.mark();
+                if (circuitBreaker.failed()) {
+                    LOGGER.warn("Unable to report to fluency, dropping the rest of the cycle: fluency={}, message={}",
+                                destination, e.getMessage(), e);
+                } else {
+                    LOGGER.warn("Unable to report to fluency: fluency={}, tag={}, message={}",
+                                destination, tag, e.getMessage(), e);
+                }
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Starts a new reporting cycle, half-opening an open circuit breaker.
+     */
+    void nextCycle() {
+        circuitBreaker.nextCycle();
+    }
+
+    /**
+     * Waits the retry backoff.
+     *
+     * @return false if interrupted while waiting
+     */
+    private boolean backOff() {
+        if (backoffNanos == 0) {
+            return true;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(backoffNanos);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
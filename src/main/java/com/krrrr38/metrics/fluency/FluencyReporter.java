@@ -1,30 +1,30 @@
 package com.krrrr38.metrics.fluency;
 
 import static com.codahale.metrics.MetricAttribute.COUNT;
-import static com.codahale.metrics.MetricAttribute.M15_RATE;
-import static com.codahale.metrics.MetricAttribute.M1_RATE;
-import static com.codahale.metrics.MetricAttribute.M5_RATE;
 import static com.codahale.metrics.MetricAttribute.MAX;
-import static com.codahale.metrics.MetricAttribute.MEAN;
-import static com.codahale.metrics.MetricAttribute.MEAN_RATE;
 import static com.codahale.metrics.MetricAttribute.MIN;
-import static com.codahale.metrics.MetricAttribute.P50;
-import static com.codahale.metrics.MetricAttribute.P75;
-import static com.codahale.metrics.MetricAttribute.P95;
-import static com.codahale.metrics.MetricAttribute.P98;
-import static com.codahale.metrics.MetricAttribute.P99;
-import static com.codahale.metrics.MetricAttribute.P999;
-import static com.codahale.metrics.MetricAttribute.STDDEV;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
+import org.komamitsu.fluency.EventTime;
 import org.komamitsu.fluency.Fluency;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,6 +35,7 @@ import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.Metered;
+import com.codahale.metrics.Metric;
 import com.codahale.metrics.MetricAttribute;
 import com.codahale.metrics.MetricFilter;
 import com.codahale.metrics.MetricRegistry;
@@ -50,6 +51,17 @@ import com.codahale.metrics.Timer;
  */
 public class FluencyReporter extends ScheduledReporter {
     private static final String DEFAULT_PREFIX = "metrics";
+    private static final int DEFAULT_COLLECTION_CHUNK_SIZE = 256;
+    static final String DELTA_KEY = "delta";
+    static final String SKETCH_KEY = "sketch";
+    static final String BUCKETS_KEY = "buckets";
+    private static final int DEFAULT_MAX_TRACKED_METRICS = 100000;
+    private static final long DEFAULT_OVERFLOW_BLOCK_TIMEOUT_MILLIS = 1000;
+    private static final long ASYNC_CLOSE_TIMEOUT_MILLIS = 10000;
+    private static final int DEFAULT_SPILL_SEGMENT_BYTES = 8 * 1024 * 1024;
+    private static final int DEFAULT_CIRCUIT_BREAKER_THRESHOLD = 5;
+    private static final int DEFAULT_GAUGE_QUARANTINE_THRESHOLD = 3;
+    private static final MetricType[] METRIC_TYPES = MetricType.values();
 
     /**
      * Returns a new {@link Builder} for {@link FluencyReporter}.
@@ -77,6 +89,38 @@ public class FluencyReporter extends ScheduledReporter {
         private ScheduledExecutorService executor;
         private boolean shutdownExecutorOnStop;
         private Set<MetricAttribute> disabledMetricAttributes;
+        private int batchSize;
+        private ExecutorService collectionExecutor;
+        private int collectionChunkSize;
+        private boolean reportCountDeltas;
+        private boolean skipZeroDeltas;
+        private int heartbeatCycles;
+        private int maxTrackedMetrics;
+        private MetricRegistry instrumentationRegistry;
+        private String instrumentationName;
+        private int asyncQueueCapacity;
+        private OverflowPolicy overflowPolicy;
+        private long overflowBlockTimeoutNanos;
+        private File spillDirectory;
+        private long maxSpillBytes;
+        private int spillSegmentBytes;
+        private int maxEmitRetries;
+        private long emitRetryBackoffNanos;
+        private int circuitBreakerThreshold;
+        private ExecutorService gaugeExecutor;
+        private long gaugeTimeoutNanos;
+        private int gaugeQuarantineThreshold;
+        private NonScalarGaugePolicy nonScalarGaugePolicy;
+        private boolean useEventTime;
+        private boolean alignTimestamps;
+        private Map<MetricFilter, Long> tierPeriodsMillis;
+        private double adaptiveTimeShare;
+        private long maxAdaptiveIntervalNanos;
+        private Set<MetricAttribute> lowPriorityAttributes;
+        private double sketchRelativeAccuracy;
+        private int maxSketchBuckets;
+        private double[] quantiles;
+        private double[] bucketBoundaries;
 
         private Builder(MetricRegistry registry) {
             this.registry = registry;
@@ -88,6 +132,38 @@ public class FluencyReporter extends ScheduledReporter {
             this.executor = null;
             this.shutdownExecutorOnStop = true;
             this.disabledMetricAttributes = Collections.emptySet();
+            this.batchSize = 0;
+            this.collectionExecutor = null;
+            this.collectionChunkSize = DEFAULT_COLLECTION_CHUNK_SIZE;
+            this.reportCountDeltas = false;
+            this.skipZeroDeltas = false;
+            this.heartbeatCycles = 0;
+            this.maxTrackedMetrics = DEFAULT_MAX_TRACKED_METRICS;
+            this.instrumentationRegistry = null;
+            this.instrumentationName = null;
+            this.asyncQueueCapacity = 0;
+            this.overflowPolicy = OverflowPolicy.DROP_OLDEST;
+            this.overflowBlockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_OVERFLOW_BLOCK_TIMEOUT_MILLIS);
+            this.spillDirectory = null;
+            this.maxSpillBytes = 0;
+            this.spillSegmentBytes = DEFAULT_SPILL_SEGMENT_BYTES;
+            this.maxEmitRetries = 0;
+            this.emitRetryBackoffNanos = 0;
+            this.circuitBreakerThreshold = DEFAULT_CIRCUIT_BREAKER_THRESHOLD;
+            this.gaugeExecutor = null;
+            this.gaugeTimeoutNanos = 0;
+            this.gaugeQuarantineThreshold = DEFAULT_GAUGE_QUARANTINE_THRESHOLD;
+            this.nonScalarGaugePolicy = NonScalarGaugePolicy.RAW;
+            this.useEventTime = false;
+            this.alignTimestamps = false;
+            this.tierPeriodsMillis = new LinkedHashMap<MetricFilter, Long>();
+            this.adaptiveTimeShare = 0;
+            this.maxAdaptiveIntervalNanos = 0;
+            this.lowPriorityAttributes = Collections.emptySet();
+            this.sketchRelativeAccuracy = 0;
+            this.maxSketchBuckets = 0;
+            this.quantiles = new double[0];
+            this.bucketBoundaries = new double[0];
         }
 
         /**
@@ -193,6 +269,548 @@ public class FluencyReporter extends ScheduledReporter {
             return this;
         }
 
+        /**
+         * Pack up to the given number of metrics into a single fluentd record, instead of emitting one
+         * record per metric.
+         * Default value is 0, which disables batching.
+         * Batched records are tagged with the prefix and contain each metric's values keyed by its name.
+         *
+         * @param batchSize the maximum number of metrics in one record, or 0 to emit one record per metric
+         *
+         * @return {@code this}
+         */
+        public Builder batchSize(int batchSize) {
+            if (batchSize < 0) {
+                throw new IllegalArgumentException("batchSize must not be negative: " + batchSize);
+            }
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * Specifies the executor to collect metric values on (e.g. a {@link java.util.concurrent.ForkJoinPool}).
+         * Default value is null.
+         * Null value leads to metric values will be collected on the reporting thread.
+         * Otherwise each reporting cycle is partitioned into chunks which take snapshots concurrently, and
+         * the collected records are still sent to fluentd in registry order from the reporting thread.
+         * The executor is not shut down with this reporter.
+         *
+         * @param collectionExecutor the executor to collect metric values on
+         *
+         * @return {@code this}
+         */
+        public Builder collectOn(ExecutorService collectionExecutor) {
+            this.collectionExecutor = collectionExecutor;
+            return this;
+        }
+
+        /**
+         * Specifies the number of metrics collected by one task when collecting on an executor.
+         * Default value is 256.
+         *
+         * @param collectionChunkSize the number of metrics collected by one task
+         *
+         * @return {@code this}
+         */
+        public Builder collectionChunkSize(int collectionChunkSize) {
+            if (collectionChunkSize <= 0) {
+                throw new IllegalArgumentException("collectionChunkSize must be positive: " + collectionChunkSize);
+            }
+            this.collectionChunkSize = collectionChunkSize;
+            return this;
+        }
+
+        /**
+         * Report the change of the count since the previous report as {@code delta}, for counters, meters
+         * and timers.
+         * Default value is false.
+         * The absolute count is still reported as {@code count} unless {@link MetricAttribute#COUNT} is
+         * disabled via {@link #disabledMetricAttributes(Set)}.
+         * The delta of a record which is dropped instead of sent is added to the next delta of its metric.
+         *
+         * @param reportCountDeltas if true, then count deltas will be reported
+         *
+         * @return {@code this}
+         */
+        public Builder reportCountDeltas(boolean reportCountDeltas) {
+            this.reportCountDeltas = reportCountDeltas;
+            return this;
+        }
+
+        /**
+         * Don't report counters, meters and timers whose count did not change since the previous report.
+         * Default value is false.
+         * Only effective in combination with {@link #reportCountDeltas(boolean)}.
+         *
+         * @param skipZeroDeltas if true, then metrics with a zero count delta will not be reported
+         *
+         * @return {@code this}
+         */
+        public Builder skipZeroDeltas(boolean skipZeroDeltas) {
+            this.skipZeroDeltas = skipZeroDeltas;
+            return this;
+        }
+
+        /**
+         * Don't report metrics whose values did not change since they were last reported, but still report
+         * them once every {@code heartbeatCycles} reports so that they are not considered dead.
+         * Default value is 0, which disables the suppression.
+         * Changes are detected by a 64-bit fingerprint of each record. A record with a non-zero count delta of
+         * {@link #reportCountDeltas(boolean)} is always reported, because its delta is not reported again.
+         *
+         * @param heartbeatCycles the maximum number of reports between two records of an unchanged metric,
+         * or 0 to report every metric on every report
+         *
+         * @return {@code this}
+         */
+        public Builder suppressUnchanged(int heartbeatCycles) {
+            if (heartbeatCycles < 0) {
+                throw new IllegalArgumentException("heartbeatCycles must not be negative: " + heartbeatCycles);
+            }
+            this.heartbeatCycles = heartbeatCycles;
+            return this;
+        }
+
+        /**
+         * Specifies the maximum number of metrics whose fingerprints are kept by
+         * {@link #suppressUnchanged(int)}, which bounds its memory footprint at about 72 bytes per metric on a 64-bit JVM with
+         * compressed oops.
+         * Metrics beyond the limit are reported on every report.
+         * Default value is 100000.
+         *
+         * @param maxTrackedMetrics the maximum number of tracked metrics
+         *
+         * @return {@code this}
+         */
+        public Builder maxTrackedMetrics(int maxTrackedMetrics) {
+            if (maxTrackedMetrics < 0) {
+                throw new IllegalArgumentException("maxTrackedMetrics must not be negative: " + maxTrackedMetrics);
+            }
+            this.maxTrackedMetrics = maxTrackedMetrics;
+            return this;
+        }
+
+        /**
+         * Register metrics about the reporter itself into the given registry: the duration of reporting
+         * cycles ({@code cycle}) and of each metric type when collected on the reporting thread
+         * ({@code collect.*}), the number of sent records
+         * ({@code records}), their estimated encoded size ({@code bytes}), failed reports
+         * ({@code failures}), skipped metrics ({@code skipped}), records dropped by
+         * {@link #emitAsynchronously(int)} or {@link #spillTo(File, long)} ({@code dropped}), records of each
+         * metric type dropped after failing or by the open circuit breaker ({@code dropped.*}), records spilled
+         * and replayed ({@code spilled} and {@code replayed}), gauge evaluations which timed out
+         * ({@code gauge.timeouts}), quarantined gauges ({@code gauge.quarantined}), the interval and the
+         * degradation of {@link #adaptiveInterval(double, long, TimeUnit)} ({@code interval.millis} and
+         * {@code degraded}) and the footprint of
+         * {@link #suppressUnchanged(int)} ({@code tracked.bytes}), all prefixed with the reporter class name.
+         * If another reporter already registered its metrics under the prefix, the metrics are registered
+         * under the prefix followed by {@code .2}, {@code .3} and so on; use
+         * {@link #instrumentedWith(MetricRegistry, String)} for stable names of several reporters.
+         * Default value is null.
+         * Null value leads to the metrics will not be exposed.
+         *
+         * @param instrumentationRegistry the registry to register the metrics of the reporter into
+         *
+         * @return {@code this}
+         */
+        public Builder instrumentedWith(MetricRegistry instrumentationRegistry) {
+            return instrumentedWith(instrumentationRegistry, null);
+        }
+
+        /**
+         * Register metrics about the reporter itself into the given registry like
+         * {@link #instrumentedWith(MetricRegistry)}, prefixed with the reporter class name and the given name,
+         * so that several reporters can share the registry.
+         *
+         * @param instrumentationRegistry the registry to register the metrics of the reporter into
+         * @param name the name of the reporter in the metric names, e.g. {@code audit}
+         *
+         * @return {@code this}
+         */
+        public Builder instrumentedWith(MetricRegistry instrumentationRegistry, String name) {
+            this.instrumentationRegistry = instrumentationRegistry;
+            this.instrumentationName = name;
+            return this;
+        }
+
+        /**
+         * Hand records over to a dedicated thread through a queue of the given capacity, so that reporting
+         * does not block while Fluency's buffer is full or its sender is stalled.
+         * Default value is 0, which emits records on the reporting thread.
+         * Records left in the queue are sent on {@link FluencyReporter#stop()} for up to 10 seconds.
+         * The dedicated thread applies {@link #retryFailedEmits(int, long, TimeUnit)} and
+         * {@link #circuitBreakerThreshold(int)}, and records which it fails to send are counted as dropped.
+         *
+         * @param queueCapacity the maximum number of queued records, or 0 to emit synchronously
+         *
+         * @return {@code this}
+         *
+         * @see #overflowPolicy(OverflowPolicy)
+         */
+        public Builder emitAsynchronously(int queueCapacity) {
+            if (queueCapacity < 0) {
+                throw new IllegalArgumentException("queueCapacity must not be negative: " + queueCapacity);
+            }
+            this.asyncQueueCapacity = queueCapacity;
+            return this;
+        }
+
+        /**
+         * Specifies what to do with records when the queue of {@link #emitAsynchronously(int)} is full.
+         * Default value is {@link OverflowPolicy#DROP_OLDEST}.
+         *
+         * @param overflowPolicy the policy for a full queue
+         *
+         * @return {@code this}
+         */
+        public Builder overflowPolicy(OverflowPolicy overflowPolicy) {
+            this.overflowPolicy = overflowPolicy;
+            return this;
+        }
+
+        /**
+         * Specifies how long to wait for room in a full queue with {@link OverflowPolicy#BLOCK} before
+         * dropping the record.
+         * Default value is 1 second.
+         *
+         * @param timeout the maximum time to wait
+         * @param unit the unit of {@code timeout}
+         *
+         * @return {@code this}
+         */
+        public Builder overflowBlockTimeout(long timeout, TimeUnit unit) {
+            if (timeout < 0) {
+                throw new IllegalArgumentException("timeout must not be negative: " + timeout);
+            }
+            this.overflowBlockTimeoutNanos = unit.toNanos(timeout);
+            return this;
+        }
+
+        /**
+         * Write records to memory-mapped segment files in the given directory while Fluency rejects them
+         * (e.g. its buffer is full because fluentd is unreachable), and send them in order with their original
+         * timestamps once it accepts records again.
+         * Default value is null.
+         * Null value leads to records rejected by Fluency will be dropped.
+         * When the segments exceed {@code maxBytes} the oldest one is dropped. Segments left on stop are sent
+         * by the next reporter spilling to the same directory, so records are delivered at least once.
+         * Spilling takes the place of {@link #retryFailedEmits(int, long, TimeUnit)} and
+         * {@link #circuitBreakerThreshold(int)}: a record which Fluency rejects is spilled at once instead of
+         * being retried or dropped, and Fluency is only tried again when the spilled records are replayed.
+         *
+         * @param directory the directory of the segment files, which must not be shared with another reporter
+         * @param maxBytes the maximum total size of the segment files
+         *
+         * @return {@code this}
+         *
+         * @see #spillSegmentSize(int)
+         */
+        public Builder spillTo(File directory, long maxBytes) {
+            if (maxBytes <= 0) {
+                throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+            }
+            this.spillDirectory = directory;
+            this.maxSpillBytes = maxBytes;
+            return this;
+        }
+
+        /**
+         * Specifies the size of each segment file of {@link #spillTo(File, long)}, which bounds the size of
+         * a single record. Segments are never larger than the {@code maxBytes} of {@link #spillTo(File, long)}.
+         * Default value is 8MiB.
+         *
+         * @param spillSegmentBytes the size of each segment file in bytes
+         *
+         * @return {@code this}
+         */
+        public Builder spillSegmentSize(int spillSegmentBytes) {
+            if (spillSegmentBytes <= 0) {
+                throw new IllegalArgumentException("spillSegmentBytes must be positive: " + spillSegmentBytes);
+            }
+            this.spillSegmentBytes = spillSegmentBytes;
+            return this;
+        }
+
+        /**
+         * Retry sending a record which Fluency rejected up to the given number of times, waiting the given
+         * backoff between attempts.
+         * Default value is 0, which drops a rejected record at once.
+         * Records which still fail are dropped, and the rest of the reporting cycle is sent as usual.
+         *
+         * @param maxRetries the maximum number of retries of a record
+         * @param backoff the time to wait between attempts
+         * @param unit the unit of {@code backoff}
+         *
+         * @return {@code this}
+         */
+        public Builder retryFailedEmits(int maxRetries, long backoff, TimeUnit unit) {
+            if (maxRetries < 0) {
+                throw new IllegalArgumentException("maxRetries must not be negative: " + maxRetries);
+            }
+            if (backoff < 0) {
+                throw new IllegalArgumentException("backoff must not be negative: " + backoff);
+            }
+            this.maxEmitRetries = maxRetries;
+            this.emitRetryBackoffNanos = unit.toNanos(backoff);
+            return this;
+        }
+
+        /**
+         * Drop the rest of a reporting cycle without sending it once the given number of consecutive records
+         * failed, because Fluency is clearly down. The next cycle tries a single record first, and drops the
+         * rest again if it fails.
+         * Default value is 5.
+         *
+         * @param circuitBreakerThreshold the number of consecutive failed records which opens the circuit, or 0
+         * to try every record
+         *
+         * @return {@code this}
+         */
+        public Builder circuitBreakerThreshold(int circuitBreakerThreshold) {
+            if (circuitBreakerThreshold < 0) {
+                throw new IllegalArgumentException(
+                        "circuitBreakerThreshold must not be negative: " + circuitBreakerThreshold);
+            }
+            this.circuitBreakerThreshold = circuitBreakerThreshold;
+            return this;
+        }
+
+        /**
+         * Evaluate gauges on the given executor, reporting a gauge without a value if it is not evaluated
+         * within the given timeout. All due gauges are submitted at the start of a report and share a single
+         * deadline, so a report waits for slow gauges for at most the timeout.
+         * Default value is null.
+         * Null value leads to gauges will be evaluated on the reporting thread without a timeout.
+         * A gauge whose evaluation is still running is not evaluated again, so the executor should have
+         * enough threads for the slow gauges. The executor is not shut down with this reporter.
+         *
+         * @param gaugeExecutor the executor to evaluate gauges on
+         * @param timeout the maximum time to wait for a gauge value
+         * @param unit the unit of {@code timeout}
+         *
+         * @return {@code this}
+         *
+         * @see #quarantineSlowGauges(int)
+         */
+        public Builder evaluateGaugesOn(ExecutorService gaugeExecutor, long timeout, TimeUnit unit) {
+            if (timeout <= 0) {
+                throw new IllegalArgumentException("timeout must be positive: " + timeout);
+            }
+            this.gaugeExecutor = gaugeExecutor;
+            this.gaugeTimeoutNanos = unit.toNanos(timeout);
+            return this;
+        }
+
+        /**
+         * Skip a gauge which timed out the given number of consecutive times for 1 reporting cycle, and for
+         * twice as many cycles (up to 64) each time it times out again.
+         * Default value is 3.
+         * Only effective in combination with {@link #evaluateGaugesOn(ExecutorService, long, TimeUnit)}.
+         *
+         * @param consecutiveTimeouts the number of consecutive timeouts which quarantines a gauge, or 0 to never
+         * quarantine gauges
+         *
+         * @return {@code this}
+         */
+        public Builder quarantineSlowGauges(int consecutiveTimeouts) {
+            if (consecutiveTimeouts < 0) {
+                throw new IllegalArgumentException("consecutiveTimeouts must not be negative: " + consecutiveTimeouts);
+            }
+            this.gaugeQuarantineThreshold = consecutiveTimeouts;
+            return this;
+        }
+
+        /**
+         * Specifies how to report gauge values which are neither numbers, booleans nor strings.
+         * Default value is {@link NonScalarGaugePolicy#RAW}.
+         *
+         * @param nonScalarGaugePolicy the policy for non-scalar gauge values
+         *
+         * @return {@code this}
+         */
+        public Builder nonScalarGauges(NonScalarGaugePolicy nonScalarGaugePolicy) {
+            this.nonScalarGaugePolicy = nonScalarGaugePolicy;
+            return this;
+        }
+
+        /**
+         * Send timestamps as Fluentd EventTime (seconds and nanoseconds) with millisecond precision, instead of
+         * integer seconds.
+         * Default value is false.
+         * Requires fluentd v0.14 or later.
+         *
+         * @param useEventTime if true, then timestamps will be sent as EventTime
+         *
+         * @return {@code this}
+         */
+        public Builder useEventTime(boolean useEventTime) {
+            this.useEventTime = useEventTime;
+            return this;
+        }
+
+        /**
+         * Schedule reports at multiples of the period given to {@link FluencyReporter#start(long, TimeUnit)}
+         * since the epoch, and round their timestamps to the nearest multiple, so that points of every host
+         * share timestamps without being resampled.
+         * Default value is false.
+         * The initial delay given to {@link FluencyReporter#start(long, long, TimeUnit)} is replaced with the
+         * delay until the next multiple of the period.
+         *
+         * @param alignTimestamps if true, then reports and their timestamps will be aligned to the period
+         *
+         * @return {@code this}
+         */
+        public Builder alignTimestamps(boolean alignTimestamps) {
+            this.alignTimestamps = alignTimestamps;
+            return this;
+        }
+
+        /**
+         * Report the metrics which match the given filter only every given period, instead of on every report,
+         * e.g. every 60 seconds for most gauges while latency timers are reported every second.
+         * A metric belongs to the first tier whose filter matches it. Metrics which match no tier are
+         * reported on every report.
+         * The period should be a multiple of the period given to {@link FluencyReporter#start(long, TimeUnit)},
+         * and is aligned to multiples of it since the epoch when {@link #alignTimestamps(boolean)} is enabled.
+         * Metrics of a tier which is not due are not evaluated at all.
+         *
+         * @param period the period of reporting the metrics, at least 1 millisecond
+         * @param unit the unit of {@code period}
+         * @param filter the filter of the metrics of the tier
+         *
+         * @return {@code this}
+         */
+        public Builder reportEvery(long period, TimeUnit unit, MetricFilter filter) {
+            final long periodMillis = unit.toMillis(period);
+            if (periodMillis <= 0) {
+                throw new IllegalArgumentException("period must be at least 1 millisecond: " + period + ' ' + unit);
+            }
+            this.tierPeriodsMillis.put(filter, periodMillis);
+            return this;
+        }
+
+        /**
+         * Lengthen the interval between reports when a report takes more than the given share of the interval in
+         * wall-clock time, doubling it up to {@code maxInterval}, and shorten it back down to the period given to
+         * {@link FluencyReporter#start(long, TimeUnit)} when reports get cheap again: attributes dropped by
+         * {@link #degradeAttributes(Set)} are restored, and the interval is halved, after 5 cheap reports in a row.
+         * Default value is 0, which reports at the period.
+         * The reporter still wakes up at the period, but skips ticks before the interval has elapsed without
+         * walking the registry. The duration of a report is the elapsed time measured by the reporter's
+         * {@link Clock}, not CPU time, so it includes waiting for gauges, collection tasks and records sent on the
+         * reporting thread.
+         *
+         * @param targetTimeShare the maximum share of the interval spent reporting in wall-clock time, e.g. 0.05
+         * for 5%
+         * @param maxInterval the maximum interval between reports
+         * @param unit the unit of {@code maxInterval}
+         *
+         * @return {@code this}
+         *
+         * @see #degradeAttributes(Set)
+         */
+        public Builder adaptiveInterval(double targetTimeShare, long maxInterval, TimeUnit unit) {
+            if (!(targetTimeShare > 0 && targetTimeShare <= 1)) {
+                throw new IllegalArgumentException("targetTimeShare must be in (0, 1]: " + targetTimeShare);
+            }
+            if (maxInterval <= 0) {
+                throw new IllegalArgumentException("maxInterval must be positive: " + maxInterval);
+            }
+            this.adaptiveTimeShare = targetTimeShare;
+            this.maxAdaptiveIntervalNanos = unit.toNanos(maxInterval);
+            return this;
+        }
+
+        /**
+         * Don't report the given attributes while reports still take more than the target share at the maximum
+         * interval of {@link #adaptiveInterval(double, long, TimeUnit)}, e.g. percentiles other than p99 to
+         * skip sorting snapshots.
+         * Default value is empty, which never drops attributes.
+         *
+         * @param lowPriorityAttributes the attributes dropped first
+         *
+         * @return {@code this}
+         */
+        public Builder degradeAttributes(Set<MetricAttribute> lowPriorityAttributes) {
+            this.lowPriorityAttributes = lowPriorityAttributes;
+            return this;
+        }
+
+        /**
+         * Add the snapshot values of histograms and timers as {@code sketch}, a mergeable sketch with
+         * logarithmic buckets, so that percentiles across hosts can be computed downstream by adding up bucket
+         * counts. Disable the percentile attributes to send sketches instead of percentiles.
+         * Default value is 0, which sends no sketch.
+         * A sketch is a MessagePack binary of {@code [relativeAccuracy, zeroCount, positive, negative]}, where
+         * {@code positive} and {@code negative} are flat arrays of {@code [index, count, indexDelta, count, ...]}
+         * and a value {@code v} is counted in the bucket {@code ceil(log(|v|) / log(gamma))} with
+         * {@code gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy)}. Timer values are in the duration unit.
+         * Bucket counts are scaled to the number of updates since the previous report, so the metrics should use
+         * an {@link IntervalReservoir} or a {@link StripedReservoir}, whose snapshots cover the same interval;
+         * the snapshots of other reservoirs cover a longer window than the counts.
+         *
+         * @param relativeAccuracy the relative error of values estimated from buckets, e.g. 0.01 for 1%
+         * @param maxBuckets the maximum number of buckets per sign, over which the lowest buckets are collapsed
+         *
+         * @return {@code this}
+         */
+        public Builder reportSketches(double relativeAccuracy, int maxBuckets) {
+            if (!(relativeAccuracy > 0 && relativeAccuracy < 1)) {
+                throw new IllegalArgumentException("relativeAccuracy must be in (0, 1): " + relativeAccuracy);
+            }
+            if (maxBuckets <= 0) {
+                throw new IllegalArgumentException("maxBuckets must be positive: " + maxBuckets);
+            }
+            this.sketchRelativeAccuracy = relativeAccuracy;
+            this.maxSketchBuckets = maxBuckets;
+            return this;
+        }
+
+        /**
+         * Add the given quantiles of histograms and timers, keyed by the digits of their percentage, e.g.
+         * {@code p90} for 0.9 and {@code p9999} for 0.9999. Disable the percentile attributes to send only
+         * these quantiles.
+         * Default value is empty.
+         * Quantiles whose keys collide, e.g. 0.9999 and 0.09999, or 0.0999 and the {@code p999} attribute, are
+         * rejected.
+         *
+         * @param quantiles the quantiles in [0, 1]
+         *
+         * @return {@code this}
+         */
+        public Builder percentiles(double... quantiles) {
+            for (double quantile : quantiles) {
+                if (!(quantile >= 0 && quantile <= 1)) {
+                    throw new IllegalArgumentException("quantile must be in [0, 1]: " + quantile);
+                }
+            }
+            Quantiles.checkKeys(quantiles);
+            this.quantiles = quantiles.clone();
+            return this;
+        }
+
+        /**
+         * Add the cumulative counts of histogram and timer snapshot values at or below each of the given
+         * boundaries ({@code le}) as {@code buckets}, an array in ascending boundary order followed by the number
+         * of all values. Boundaries of timers are in the duration unit.
+         * Default value is empty.
+         * Counts are of the samples in the reservoir, resampled by weight for weighted reservoirs, so the ratio
+         * of a bucket to the last one is the share of recent values within the boundary.
+         *
+         * @param boundaries the upper bounds of the buckets
+         *
+         * @return {@code this}
+         */
+        public Builder buckets(double... boundaries) {
+            for (double boundary : boundaries) {
+                if (Double.isNaN(boundary)) {
+                    throw new IllegalArgumentException("boundary must not be NaN");
+                }
+            }
+            this.bucketBoundaries = boundaries.clone();
+            return this;
+        }
+
         /**
          * Builds a {@link FluencyReporter} with the given properties, sending metrics using the
          * given {@link Fluency}.
@@ -202,59 +820,166 @@ public class FluencyReporter extends ScheduledReporter {
          * @return a {@link FluencyReporter}
          */
         public FluencyReporter build(Fluency fluency) {
-            return new FluencyReporter(
-                    registry,
-                    fluency,
-                    clock,
-                    prefix,
-                    rateUnit,
-                    durationUnit,
-                    filter,
-                    executor,
-                    shutdownExecutorOnStop,
-                    disabledMetricAttributes
-            );
+            return new FluencyReporter(this, fluency);
         }
     }
 
     private static final Logger LOGGER = LoggerFactory.getLogger(FluencyReporter.class);
 
+    private final MetricRegistry registry;
     private final Fluency fluency;
     private final Clock clock;
-    private final String prefix;
+    private final TagCache tags;
+    private final String batchTag;
+    private final int batchSize;
+    private final ExecutorService collectionExecutor;
+    private final int collectionChunkSize;
+    private final CountDeltas countDeltas;
+    private final boolean skipZeroDeltas;
+    private final ChangeDetector changeDetector;
+    private final ReporterMetrics reporterMetrics;
+    private final SpillBuffer spillBuffer;
+    private final AsyncEmitter asyncEmitter;
+    private final EmitPolicy emitPolicy;
+    private final GaugeEvaluator gaugeEvaluator;
+    private final GaugeEncoder gaugeEncoder;
+    private final SketchEncoder sketchEncoder;
+    /**
+     * The last counts of histograms and timers whose sketches were reported, to scale sketches to the number of
+     * updates since the previous report.
+     */
+    private final CountDeltas sketchCounts;
+    private final Quantiles quantiles;
+    private final Buckets buckets;
+    /**
+     * Whether histograms and timers take a snapshot regardless of the attribute plan.
+     */
+    private final boolean snapshotRequired;
+    private final boolean useEventTime;
+    private final boolean alignTimestamps;
+    private volatile long alignmentMillis;
+    private volatile long periodMillis;
+    private final ReportingTiers tiers;
+    private long cycleRecords;
+    private long cycleBytes;
+    private long cycleSkipped;
+    private long batchBytes;
+    private final MetricRecord record;
+    private final RecordBatch batch;
+    private final int[] batchTypes;
+    private final AttributePlan fullPlan;
+    private final AttributePlan degradedPlan;
+    private volatile AttributePlan plan;
+    private final AdaptiveSchedule adaptiveSchedule;
 
     /**
      * Creates a new {@link FluencyReporter} instance.
      *
-     * @param registry the {@link MetricRegistry} containing the metrics this
-     * reporter will report
+     * @param builder the builder holding the settings of this reporter
      * @param fluency the {@link Fluency} which is responsible for sending metrics to a Carbon server
      * via a transport protocol
-     * @param clock the instance of the time. Use {@link Clock#defaultClock()} for the default
-     * @param prefix the tag of all metric names (may be null)
-     * @param rateUnit the time unit of in which rates will be converted
-     * @param durationUnit the time unit of in which durations will be converted
-     * @param filter the filter for which metrics to report
-     * @param executor the executor to use while scheduling reporting of metrics (may be null).
-     * @param shutdownExecutorOnStop if true, then executor will be stopped in same time with this reporter
      */
-    FluencyReporter(
-            MetricRegistry registry,
-            Fluency fluency,
-            Clock clock,
-            String prefix,
-            TimeUnit rateUnit,
-            TimeUnit durationUnit,
-            MetricFilter filter,
-            ScheduledExecutorService executor,
-            boolean shutdownExecutorOnStop,
-            Set<MetricAttribute> disabledMetricAttributes
-    ) {
-        super(registry, "fluency-reporter", filter, rateUnit, durationUnit, executor, shutdownExecutorOnStop,
-              disabledMetricAttributes);
+    FluencyReporter(Builder builder, Fluency fluency) {
+        super(builder.registry, "fluency-reporter", builder.filter, builder.rateUnit, builder.durationUnit,
+              builder.executor, builder.shutdownExecutorOnStop, builder.disabledMetricAttributes);
+        this.registry = builder.registry;
         this.fluency = fluency;
-        this.clock = clock;
-        this.prefix = prefix;
+        this.clock = builder.clock;
+        this.tags = new TagCache(builder.prefix);
+        this.batchTag = builder.prefix == null || builder.prefix.isEmpty() ? DEFAULT_PREFIX : builder.prefix;
+        this.batchSize = builder.batchSize;
+        this.collectionExecutor = builder.collectionExecutor;
+        this.collectionChunkSize = builder.collectionChunkSize;
+        this.countDeltas = builder.reportCountDeltas ? new CountDeltas() : null;
+        this.skipZeroDeltas = builder.reportCountDeltas && builder.skipZeroDeltas;
+        this.changeDetector = builder.heartbeatCycles > 0
+                              ? new ChangeDetector(builder.heartbeatCycles, builder.maxTrackedMetrics)
+                              : null;
+        this.reporterMetrics = new ReporterMetrics(
+                builder.instrumentationRegistry != null ? builder.instrumentationRegistry : new MetricRegistry(),
+                builder.instrumentationName,
+                changeDetector);
+        this.useEventTime = builder.useEventTime;
+        this.alignTimestamps = builder.alignTimestamps;
+        this.tiers = builder.tierPeriodsMillis.isEmpty() ? null : new ReportingTiers(builder.tierPeriodsMillis);
+        final RecordSink fluencySink = new FluencySink(fluency, useEventTime);
+        try {
+            this.spillBuffer = builder.spillDirectory != null
+                               ? new SpillBuffer(fluencySink, builder.spillDirectory, builder.spillSegmentBytes,
+                                                 builder.maxSpillBytes, clock,
+                                                 reporterMetrics.spilled, reporterMetrics.replayed,
+                                                 reporterMetrics.dropped, reporterMetrics.failures)
+                               : null;
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to open spill directory: " + builder.spillDirectory, e);
+        }
+        final RecordSink deliverySink = spillBuffer != null ? spillBuffer : fluencySink;
+        this.emitPolicy = new EmitPolicy(deliverySink, builder.maxEmitRetries, builder.emitRetryBackoffNanos,
+                                         new CircuitBreaker(builder.circuitBreakerThreshold), reporterMetrics.failures,
+                                         fluency);
+        this.asyncEmitter = builder.asyncQueueCapacity > 0
+                            ? new AsyncEmitter(emitPolicy, builder.asyncQueueCapacity, builder.overflowPolicy,
+                                               builder.overflowBlockTimeoutNanos, reporterMetrics.dropped,
+                                               reporterMetrics.failures, new DropListener() {
+                                                   @Override
+                                                   public void dropped(Map<String, Object> data) {
+                                                       restore(data);
+                                                   }
+                                               })
+                            : null;
+        this.gaugeEvaluator = builder.gaugeExecutor != null
+                              ? new GaugeEvaluator(builder.gaugeExecutor, builder.gaugeTimeoutNanos,
+                                                   builder.gaugeQuarantineThreshold, clock,
+                                                   reporterMetrics.gaugeTimeouts)
+                              : null;
+        if (gaugeEvaluator != null) {
+            reporterMetrics.track(gaugeEvaluator);
+        }
+        this.gaugeEncoder = new GaugeEncoder(builder.nonScalarGaugePolicy);
+        this.sketchEncoder = builder.sketchRelativeAccuracy > 0
+                             ? new SketchEncoder(builder.sketchRelativeAccuracy, builder.maxSketchBuckets)
+                             : null;
+        this.sketchCounts = sketchEncoder != null ? new CountDeltas() : null;
+        this.quantiles = builder.quantiles.length > 0 ? new Quantiles(builder.quantiles) : null;
+        this.buckets = builder.bucketBoundaries.length > 0 ? new Buckets(builder.bucketBoundaries) : null;
+        this.snapshotRequired = sketchEncoder != null || this.quantiles != null || buckets != null;
+        this.record = new MetricRecord();
+        this.batch = new RecordBatch(builder.batchSize);
+        this.batchTypes = new int[METRIC_TYPES.length];
+        final EnumSet<MetricAttribute> disabled = EnumSet.noneOf(MetricAttribute.class);
+        disabled.addAll(getDisabledMetricAttributes());
+        this.fullPlan = new AttributePlan(disabled);
+        this.plan = fullPlan;
+        if (builder.adaptiveTimeShare > 0 && !builder.lowPriorityAttributes.isEmpty()) {
+            final EnumSet<MetricAttribute> degraded = EnumSet.copyOf(disabled);
+            degraded.addAll(builder.lowPriorityAttributes);
+            this.degradedPlan = new AttributePlan(degraded);
+        } else {
+            this.degradedPlan = null;
+        }
+        this.adaptiveSchedule = builder.adaptiveTimeShare > 0
+                                ? new AdaptiveSchedule(builder.adaptiveTimeShare, builder.maxAdaptiveIntervalNanos,
+                                                       degradedPlan != null)
+                                : null;
+        if (adaptiveSchedule != null) {
+            reporterMetrics.track(adaptiveSchedule);
+        }
+        registry.addListener(tags);
+        if (countDeltas != null) {
+            registry.addListener(countDeltas);
+        }
+        if (sketchCounts != null) {
+            registry.addListener(sketchCounts);
+        }
+        if (changeDetector != null) {
+            registry.addListener(changeDetector);
+        }
+        if (gaugeEvaluator != null) {
+            registry.addListener(gaugeEvaluator);
+        }
+        if (tiers != null) {
+            registry.addListener(tiers);
+        }
     }
 
     @Override
@@ -266,35 +991,180 @@ public class FluencyReporter extends ScheduledReporter {
             SortedMap<String, Meter> meters,
             SortedMap<String, Timer> timers
     ) {
-        final long timestamp = clock.getTime() / 1000;
+        final long now = aligned(clock.getTime());
+        final long timestamp = useEventTime ? now : now / 1000 * 1000;
+        final long start = clock.getTick();
+        if (asyncEmitter == null) {
+            emitPolicy.nextCycle();
+        }
+        if (tiers != null) {
+            tiers.tick(now, periodMillis / 2);
+        }
+        if (gaugeEvaluator != null) {
+            submitGauges(gauges);
+        }
 
         try {
+            if (collectionExecutor != null) {
+                reportConcurrently(timestamp, gauges, counters, histograms, meters, timers);
+                flushBatch(timestamp);
+                return;
+            }
+            long lap = start;
             for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
-                reportGauge(entry.getKey(), entry.getValue(), timestamp);
+                if (isDue(entry.getKey(), entry.getValue())) {
+                    reportGauge(entry.getKey(), entry.getValue(), timestamp);
+                }
             }
+            lap = lap(reporterMetrics.gauges, lap);
             for (Map.Entry<String, Counter> entry : counters.entrySet()) {
-                reportCounter(entry.getKey(), entry.getValue(), timestamp);
+                if (isDue(entry.getKey(), entry.getValue())) {
+                    reportCounter(entry.getKey(), entry.getValue(), timestamp);
+                }
             }
+            lap = lap(reporterMetrics.counters, lap);
             for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
-                reportHistogram(entry.getKey(), entry.getValue(), timestamp);
+                if (isDue(entry.getKey(), entry.getValue())) {
+                    reportHistogram(entry.getKey(), entry.getValue(), timestamp);
+                }
             }
+            lap = lap(reporterMetrics.histograms, lap);
             for (Map.Entry<String, Meter> entry : meters.entrySet()) {
-                reportMetered(entry.getKey(), entry.getValue(), timestamp);
+                if (isDue(entry.getKey(), entry.getValue())) {
+                    reportMetered(entry.getKey(), entry.getValue(), timestamp);
+                }
             }
+            lap = lap(reporterMetrics.meters, lap);
             for (Map.Entry<String, Timer> entry : timers.entrySet()) {
-                reportTimer(entry.getKey(), entry.getValue(), timestamp);
+                if (isDue(entry.getKey(), entry.getValue())) {
+                    reportTimer(entry.getKey(), entry.getValue(), timestamp);
+                }
             }
+            flushBatch(timestamp);
+            lap(reporterMetrics.timers, lap);
         } catch (IOException e) {
+            reporterMetrics.failures.mark();
             LOGGER.warn("Unable to report to fluency: fluency={}, message={}",
                         fluency, e.getMessage(), e);
+        } finally {
+            dropBatch();
+            reporterMetrics.records.mark(cycleRecords);
+            reporterMetrics.bytes.mark(cycleBytes);
+            reporterMetrics.skipped.mark(cycleSkipped);
+            cycleRecords = 0;
+            cycleBytes = 0;
+            cycleSkipped = 0;
+            lap(reporterMetrics.cycle, start);
+        }
+    }
+
+    /**
+     * Submits the due gauges to the gauge evaluator, whose values are collected against a single deadline.
+     */
+    @SuppressWarnings("rawtypes")
+    private void submitGauges(SortedMap<String, Gauge> gauges) {
+        gaugeEvaluator.startCycle();
+        for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+            if (isDue(entry.getKey(), entry.getValue())) {
+                gaugeEvaluator.submit(entry.getKey(), entry.getValue());
+            }
         }
     }
 
+    /**
+     * Returns the given time rounded to the nearest multiple of the reporting period when aligned.
+     */
+    private long aligned(long millis) {
+        final long interval = alignmentMillis;
+        return interval > 0 ? (millis + interval / 2) / interval * interval : millis;
+    }
+
+    @Override
+    public synchronized void start(long initialDelay, long period, TimeUnit unit) {
+        final long periodMillis = unit.toMillis(period);
+        this.periodMillis = periodMillis;
+        if (asyncEmitter != null) {
+            asyncEmitter.start();
+        }
+        if (adaptiveSchedule != null) {
+            adaptiveSchedule.start(unit.toNanos(period));
+        }
+        if (!alignTimestamps || periodMillis == 0) {
+            super.start(initialDelay, period, unit);
+            return;
+        }
+        alignmentMillis = periodMillis;
+        final long delayMillis = periodMillis - clock.getTime() % periodMillis;
+        super.start(delayMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Reports unless the adaptive interval has not elapsed since the previous report, and adapts the interval
+     * to the duration of the report.
+     */
+    @Override
+    public synchronized void report() {
+        if (adaptiveSchedule == null) {
+            super.report();
+            return;
+        }
+        final long start = clock.getTick();
+        if (!adaptiveSchedule.isDue(start)) {
+            return;
+        }
+        try {
+            super.report();
+        } finally {
+            adaptiveSchedule.completed(start, clock.getTick() - start);
+            plan = adaptiveSchedule.degraded() ? degradedPlan : fullPlan;
+        }
+    }
+
+    /**
+     * Returns whether the metric is reported in the current report, because it belongs to no tier or its tier
+     * is due.
+     */
+    private boolean isDue(String name, Metric metric) {
+        return tiers == null || tiers.isDue(name, metric);
+    }
+
+    /**
+     * Updates the timer with the time elapsed since the given tick and returns the current tick.
+     */
+    private long lap(Timer timer, long start) {
+        final long now = clock.getTick();
+        timer.update(now - start, TimeUnit.NANOSECONDS);
+        return now;
+    }
+
     @Override
     public void stop() {
         try {
             super.stop();
         } finally {
+            registry.removeListener(tags);
+            if (countDeltas != null) {
+                registry.removeListener(countDeltas);
+            }
+            if (sketchCounts != null) {
+                registry.removeListener(sketchCounts);
+            }
+            if (changeDetector != null) {
+                registry.removeListener(changeDetector);
+            }
+            if (gaugeEvaluator != null) {
+                registry.removeListener(gaugeEvaluator);
+            }
+            if (tiers != null) {
+                registry.removeListener(tiers);
+            }
+            if (asyncEmitter != null) {
+                asyncEmitter.close(ASYNC_CLOSE_TIMEOUT_MILLIS);
+            }
+            if (spillBuffer != null) {
+                spillBuffer.close();
+            }
+            reporterMetrics.remove();
             try {
                 fluency.close();
             } catch (IOException e) {
@@ -303,102 +1173,508 @@ public class FluencyReporter extends ScheduledReporter {
         }
     }
 
-    private void reportTimer(String name, Timer timer, long timestamp) throws IOException {
-        final Snapshot snapshot = timer.getSnapshot();
-        final Map<String, Object> data = new HashMap<String, Object>();
-        registerIfEnabled(data, MAX, convertDuration(snapshot.getMax()));
-        registerIfEnabled(data, MEAN, convertDuration(snapshot.getMean()));
-        registerIfEnabled(data, MIN, convertDuration(snapshot.getMin()));
-        registerIfEnabled(data, STDDEV, convertDuration(snapshot.getStdDev()));
-        registerIfEnabled(data, P50, convertDuration(snapshot.getMedian()));
-        registerIfEnabled(data, P75, convertDuration(snapshot.get75thPercentile()));
-        registerIfEnabled(data, P95, convertDuration(snapshot.get95thPercentile()));
-        registerIfEnabled(data, P98, convertDuration(snapshot.get98thPercentile()));
-        registerIfEnabled(data, P99, convertDuration(snapshot.get99thPercentile()));
-        registerIfEnabled(data, P999, convertDuration(snapshot.get999thPercentile()));
-        registerIfEnabled(data, COUNT, timer.getCount());
-        registerIfEnabled(data, M1_RATE, convertRate(timer.getOneMinuteRate()));
-        registerIfEnabled(data, M5_RATE, convertRate(timer.getFiveMinuteRate()));
-        registerIfEnabled(data, M15_RATE, convertRate(timer.getFifteenMinuteRate()));
-        registerIfEnabled(data, MEAN_RATE, convertRate(timer.getMeanRate()));
-        LOGGER.trace("send metrics to fluentd: name={}, data={}", name, data);
-        if (!data.isEmpty()) {
-            fluency.emit(tag(name), timestamp, data);
+    @SuppressWarnings("rawtypes")
+    private void reportConcurrently(
+            long timestamp,
+            SortedMap<String, Gauge> gauges,
+            SortedMap<String, Counter> counters,
+            SortedMap<String, Histogram> histograms,
+            SortedMap<String, Meter> meters,
+            SortedMap<String, Timer> timers
+    ) throws IOException {
+        final List<Future<CollectionTask>> tasks = new ArrayList<Future<CollectionTask>>();
+        try {
+            submitCollection(tasks, MetricType.GAUGE, gauges);
+            submitCollection(tasks, MetricType.COUNTER, counters);
+            submitCollection(tasks, MetricType.HISTOGRAM, histograms);
+            submitCollection(tasks, MetricType.METER, meters);
+            submitCollection(tasks, MetricType.TIMER, timers);
+            for (Future<CollectionTask> future : tasks) {
+                final CollectionTask task = await(future);
+                for (int i = 0; i < task.size; i++) {
+                    if (task.records[i] != null) {
+                        emitIfPresent(task.names[i], timestamp, task.records[i], task.type);
+                    }
+                }
+            }
+        } finally {
+            for (Future<CollectionTask> future : tasks) {
+                future.cancel(false);
+            }
         }
     }
 
-    private void reportMetered(String name, Metered meter, long timestamp) throws IOException {
-        final Map<String, Object> data = new HashMap<String, Object>();
-        registerIfEnabled(data, COUNT, meter.getCount());
-        registerIfEnabled(data, M1_RATE, convertRate(meter.getOneMinuteRate()));
-        registerIfEnabled(data, M5_RATE, convertRate(meter.getFiveMinuteRate()));
-        registerIfEnabled(data, M15_RATE, convertRate(meter.getFifteenMinuteRate()));
-        registerIfEnabled(data, MEAN_RATE, convertRate(meter.getMeanRate()));
-        LOGGER.trace("send metrics to fluentd: name={}, data={}", name, data);
-        if (!data.isEmpty()) {
-            fluency.emit(tag(name), timestamp, data);
-        }
-    }
-
-    private void reportHistogram(String name, Histogram histogram, long timestamp) throws IOException {
-        final Snapshot snapshot = histogram.getSnapshot();
-        final Map<String, Object> data = new HashMap<String, Object>();
-        registerIfEnabled(data, COUNT, histogram.getCount());
-        registerIfEnabled(data, MAX, snapshot.getMax());
-        registerIfEnabled(data, MEAN, snapshot.getMean());
-        registerIfEnabled(data, MIN, snapshot.getMin());
-        registerIfEnabled(data, STDDEV, snapshot.getStdDev());
-        registerIfEnabled(data, P50, snapshot.getMedian());
-        registerIfEnabled(data, P75, snapshot.get75thPercentile());
-        registerIfEnabled(data, P95, snapshot.get95thPercentile());
-        registerIfEnabled(data, P98, snapshot.get98thPercentile());
-        registerIfEnabled(data, P99, snapshot.get99thPercentile());
-        registerIfEnabled(data, P999, snapshot.get999thPercentile());
-        LOGGER.trace("send metrics to fluentd: name={}, data={}", name, data);
-        if (!data.isEmpty()) {
-            fluency.emit(tag(name), timestamp, data);
+    private void submitCollection(
+            List<Future<CollectionTask>> tasks, MetricType type, SortedMap<String, ? extends Metric> metrics
+    ) {
+        CollectionTask task = null;
+        for (Map.Entry<String, ? extends Metric> entry : metrics.entrySet()) {
+            if (!isDue(entry.getKey(), entry.getValue())) {
+                continue;
+            }
+            if (task == null) {
+                task = new CollectionTask(type, collectionChunkSize);
+            }
+            task.add(entry.getKey(), entry.getValue());
+            if (task.size == collectionChunkSize) {
+                tasks.add(collectionExecutor.submit(task));
+                task = null;
+            }
+        }
+        if (task != null) {
+            tasks.add(collectionExecutor.submit(task));
         }
     }
 
-    private void reportCounter(String name, Counter counter, long timestamp) throws IOException {
-        final Map<String, Object> data = new HashMap<String, Object>(1);
-        registerIfEnabled(data, COUNT, counter.getCount());
-        LOGGER.trace("send metrics to fluentd: name={}, data={}", name, data);
-        if (!data.isEmpty()) {
-            fluency.emit(tag(name), timestamp, data);
+    private static CollectionTask await(Future<CollectionTask> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while collecting metrics");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException("Unable to collect metrics", cause);
         }
     }
 
-    private void reportGauge(String name, Gauge<?> gauge, long timestamp) throws IOException {
-        final Object value = gauge.getValue();
-        if (value == null) {
+    /**
+     * Collects the records of a chunk of metrics on the collection executor.
+     * Each metric gets its own record, because the records are emitted after the whole chunk is collected.
+     * The record of a metric which throws is left null.
+     */
+    private final class CollectionTask implements Callable<CollectionTask> {
+        private final MetricType type;
+        private final String[] names;
+        private final Metric[] metrics;
+        private final MetricRecord[] records;
+        private int size;
+
+        private CollectionTask(MetricType type, int capacity) {
+            this.type = type;
+            this.names = new String[capacity];
+            this.metrics = new Metric[capacity];
+            this.records = new MetricRecord[capacity];
+        }
+
+        private void add(String name, Metric metric) {
+            names[size] = name;
+            metrics[size] = metric;
+            size++;
+        }
+
+        @Override
+        public CollectionTask call() {
+            for (int i = 0; i < size; i++) {
+                records[i] = new MetricRecord();
+                try {
+                    collect(names[i], records[i], metrics[i]);
+                } catch (RuntimeException e) {
+                    collectionFailed(names[i], records[i], type, e);
+                    records[i] = null;
+                }
+            }
+            return this;
+        }
+    }
+
+    private void reportTimer(String name, Timer timer, long timestamp) {
+        final MetricRecord data = nextRecord();
+        try {
+            collectTimer(name, data, timer);
+        } catch (RuntimeException e) {
+            collectionFailed(name, data, MetricType.TIMER, e);
+            return;
+        }
+        emitIfPresent(name, timestamp, data, MetricType.TIMER);
+    }
+
+    private void reportMetered(String name, Metered meter, long timestamp) {
+        final MetricRecord data = nextRecord();
+        try {
+            collectMetered(name, data, meter);
+        } catch (RuntimeException e) {
+            collectionFailed(name, data, MetricType.METER, e);
+            return;
+        }
+        emitIfPresent(name, timestamp, data, MetricType.METER);
+    }
+
+    private void reportHistogram(String name, Histogram histogram, long timestamp) {
+        final MetricRecord data = nextRecord();
+        try {
+            collectHistogram(name, data, histogram);
+        } catch (RuntimeException e) {
+            collectionFailed(name, data, MetricType.HISTOGRAM, e);
+            return;
+        }
+        emitIfPresent(name, timestamp, data, MetricType.HISTOGRAM);
+    }
+
+    private void reportCounter(String name, Counter counter, long timestamp) {
+        final MetricRecord data = nextRecord();
+        try {
+            collectCounter(name, data, counter);
+        } catch (RuntimeException e) {
+            collectionFailed(name, data, MetricType.COUNTER, e);
+            return;
+        }
+        emitIfPresent(name, timestamp, data, MetricType.COUNTER);
+    }
+
+    private void reportGauge(String name, Gauge<?> gauge, long timestamp) {
+        final MetricRecord data = nextRecord();
+        try {
+            collectGauge(name, data, gauge);
+        } catch (RuntimeException e) {
+            collectionFailed(name, data, MetricType.GAUGE, e);
+            return;
+        }
+        emitIfPresent(name, timestamp, data, MetricType.GAUGE);
+    }
+
+    /**
+     * Drops the record of a metric which threw while it was collected, so that the rest of the report is sent.
+     */
+    private void collectionFailed(String name, MetricRecord data, MetricType type, RuntimeException e) {
+        reporterMetrics.dropped(type).mark();
+        data.name = name;
+        restore(data);
+        LOGGER.warn("Unable to collect metrics: name={}, message={}", name, e.getMessage(), e);
+    }
+
+    private void collect(String name, MetricRecord data, Metric metric) {
+        if (metric instanceof Timer) {
+            collectTimer(name, data, (Timer) metric);
+        } else if (metric instanceof Histogram) {
+            collectHistogram(name, data, (Histogram) metric);
+        } else if (metric instanceof Metered) {
+            collectMetered(name, data, (Metered) metric);
+        } else if (metric instanceof Counter) {
+            collectCounter(name, data, (Counter) metric);
+        } else if (metric instanceof Gauge) {
+            collectGauge(name, data, (Gauge<?>) metric);
+        }
+    }
+
+    private void collectTimer(String name, MetricRecord data, Timer timer) {
+        final long count = timer.getCount();
+        if (!collectDelta(name, data, count)) {
+            return;
+        }
+        final AttributePlan plan = this.plan;
+        final Snapshot snapshot = plan.timerSnapshotEnabled || snapshotRequired ? timer.getSnapshot() : null;
+        for (MetricAttribute attribute : plan.timerAttributes) {
+            switch (attribute) {
+                case COUNT:
+                    data.put(COUNT, count);
+                    break;
+                case M1_RATE:
+                case M5_RATE:
+                case M15_RATE:
+                case MEAN_RATE:
+                    data.put(attribute, convertRate(rate(timer, attribute)));
+                    break;
+                default:
+                    data.put(attribute, convertDuration(snapshotValue(snapshot, attribute)));
+            }
+        }
+        if (quantiles != null) {
+            quantiles.put(data, snapshot, convertDuration(1));
+        }
+        if (buckets != null) {
+            data.put(BUCKETS_KEY, (Object) buckets.count(snapshot, convertDuration(1)));
+        }
+        if (sketchEncoder != null) {
+            data.put(SKETCH_KEY,
+                     (Object) sketchEncoder.encode(snapshot, convertDuration(1), sketchCounts.update(name, count)));
+        }
+    }
+
+    private void collectMetered(String name, MetricRecord data, Metered meter) {
+        final long count = meter.getCount();
+        if (!collectDelta(name, data, count)) {
+            return;
+        }
+        final AttributePlan plan = this.plan;
+        for (MetricAttribute attribute : plan.meteredAttributes) {
+            if (attribute == COUNT) {
+                data.put(COUNT, count);
+            } else {
+                data.put(attribute, convertRate(rate(meter, attribute)));
+            }
+        }
+    }
+
+    private void collectHistogram(String name, MetricRecord data, Histogram histogram) {
+        final AttributePlan plan = this.plan;
+        final Snapshot snapshot = plan.histogramSnapshotEnabled || snapshotRequired ? histogram.getSnapshot() : null;
+        for (MetricAttribute attribute : plan.histogramAttributes) {
+            switch (attribute) {
+                case COUNT:
+                    data.put(COUNT, histogram.getCount());
+                    break;
+                case MAX:
+                    data.put(MAX, snapshot.getMax());
+                    break;
+                case MIN:
+                    data.put(MIN, snapshot.getMin());
+                    break;
+                default:
+                    data.put(attribute, snapshotValue(snapshot, attribute));
+            }
+        }
+        if (quantiles != null) {
+            quantiles.put(data, snapshot, 1);
+        }
+        if (buckets != null) {
+            data.put(BUCKETS_KEY, (Object) buckets.count(snapshot, 1));
+        }
+        if (sketchEncoder != null) {
+            data.put(SKETCH_KEY,
+                     (Object) sketchEncoder.encode(snapshot, 1, sketchCounts.update(name, histogram.getCount())));
+        }
+    }
+
+    private void collectCounter(String name, MetricRecord data, Counter counter) {
+        final long count = counter.getCount();
+        if (!collectDelta(name, data, count)) {
+            return;
+        }
+        final AttributePlan plan = this.plan;
+        if (plan.counterEnabled) {
+            data.put(COUNT, count);
+        }
+    }
+
+    private void collectGauge(String name, MetricRecord data, Gauge<?> gauge) {
+        final Object value = gaugeEvaluator != null ? gaugeEvaluator.evaluate(name) : gauge.getValue();
+        if (value != null) {
+            gaugeEncoder.encode(data, value);
+        }
+    }
+
+    /**
+     * Puts the count delta of the metric when count deltas are reported.
+     *
+     * @return false if the metric should not be reported, because its count did not change
+     */
+    private boolean collectDelta(String name, MetricRecord data, long count) {
+        if (countDeltas == null) {
+            return true;
+        }
+        final long delta = countDeltas.update(name, count);
+        if (delta == 0 && skipZeroDeltas) {
+            return false;
+        }
+        data.put(DELTA_KEY, delta);
+        return true;
+    }
+
+    private static double snapshotValue(Snapshot snapshot, MetricAttribute attribute) {
+        switch (attribute) {
+            case MAX:
+                return snapshot.getMax();
+            case MEAN:
+                return snapshot.getMean();
+            case MIN:
+                return snapshot.getMin();
+            case STDDEV:
+                return snapshot.getStdDev();
+            case P50:
+                return snapshot.getMedian();
+            case P75:
+                return snapshot.get75thPercentile();
+            case P95:
+                return snapshot.get95thPercentile();
+            case P98:
+                return snapshot.get98thPercentile();
+            case P99:
+                return snapshot.get99thPercentile();
+            case P999:
+                return snapshot.get999thPercentile();
+            default:
+                throw new IllegalArgumentException("Not a snapshot attribute: " + attribute);
+        }
+    }
+
+    private static double rate(Metered meter, MetricAttribute attribute) {
+        switch (attribute) {
+            case M1_RATE:
+                return meter.getOneMinuteRate();
+            case M5_RATE:
+                return meter.getFiveMinuteRate();
+            case M15_RATE:
+                return meter.getFifteenMinuteRate();
+            case MEAN_RATE:
+                return meter.getMeanRate();
+            default:
+                throw new IllegalArgumentException("Not a rate attribute: " + attribute);
+        }
+    }
+
+    /**
+     * Returns a cleared {@link MetricRecord} for the next metric.
+     * Without batching a single record is reused, because Fluency serializes it while emitting.
+     * With batching each slot of the current batch keeps its own record until the batch is flushed.
+     * Emitting asynchronously hands the record over to the queue, so a new record is used for each metric.
+     */
+    private MetricRecord nextRecord() {
+        if (asyncEmitter != null) {
+            return new MetricRecord();
+        } else if (batchSize > 0) {
+            return batch.nextRecord();
+        }
+        record.clear();
+        return record;
+    }
+
+    private void emitIfPresent(String name, long timestamp, MetricRecord data, MetricType type) {
+        if (data.isEmpty()) {
+            cycleSkipped++;
+            return;
+        }
+        if (changeDetector != null && !changeDetector.changed(name, data.fingerprint())
+            && data.getLong(DELTA_KEY, 0) == 0) {
+            LOGGER.trace("skip unchanged metrics: name={}", name);
+            cycleSkipped++;
             return;
         }
-        final Map<String, Object> data = new HashMap<String, Object>(1);
-        data.put(COUNT.getCode(), value);
         LOGGER.trace("send metrics to fluentd: name={}, data={}", name, data);
-        fluency.emit(tag(name), timestamp, data);
+        emit(name, timestamp, data, type);
     }
 
-    private void registerIfEnabled(
-            Map<String, Object> data, MetricAttribute type, double value
-    ) {
-        if (getDisabledMetricAttributes().contains(type)) {
+    private void emit(String name, long timestamp, MetricRecord data, MetricType type) {
+        data.name = name;
+        if (batchSize == 0) {
+            if (send(tag(name), timestamp, data)) {
+                cycleRecords++;
+                cycleBytes += data.estimatedSize();
+            } else {
+                reporterMetrics.dropped(type).mark();
+                restore(data);
+            }
             return;
         }
-        data.put(type.getCode(), value);
+        batch.add(name, data);
+        batchTypes[type.ordinal()]++;
+        batchBytes += MetricRecord.estimatedSize(name) + data.estimatedSize();
+        if (batch.isFull()) {
+            flushBatch(timestamp);
+        }
     }
 
-    private void registerIfEnabled(
-            Map<String, Object> data, MetricAttribute type, long value
-    ) {
-        if (getDisabledMetricAttributes().contains(type)) {
+    private void flushBatch(long timestamp) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        LOGGER.trace("send batched metrics to fluentd: size={}", batch.size());
+        if (send(batchTag, timestamp, asyncEmitter != null ? new HashMap<String, Object>(batch) : batch)) {
+            cycleRecords += batch.size();
+            cycleBytes += batchBytes;
+            batch.clear();
+            batchBytes = 0;
+            Arrays.fill(batchTypes, 0);
+        } else {
+            dropBatch();
+        }
+    }
+
+    /**
+     * Drops the metrics left in the batch, counting them by type.
+     */
+    private void dropBatch() {
+        for (MetricType type : METRIC_TYPES) {
+            reporterMetrics.dropped(type).mark(batchTypes[type.ordinal()]);
+        }
+        restore(batch);
+        batch.clear();
+        batchBytes = 0;
+        Arrays.fill(batchTypes, 0);
+    }
+
+    /**
+     * Gives the metrics of a dropped record, or batch of records, another chance in the next report: their count
+     * deltas are carried forward and their fingerprints are forgotten, so that they are not suppressed as
+     * unchanged.
+     */
+    private void restore(Map<String, Object> data) {
+        if (data instanceof MetricRecord) {
+            restore((MetricRecord) data);
             return;
         }
-        data.put(type.getCode(), value);
+        for (Object value : data.values()) {
+            if (value instanceof MetricRecord) {
+                restore((MetricRecord) value);
+            }
+        }
     }
 
-    private String tag(String... components) {
-        return MetricRegistry.name(prefix, components);
+    private void restore(MetricRecord record) {
+        if (record.name == null) {
+            return;
+        }
+        if (changeDetector != null) {
+            changeDetector.forget(record.name);
+        }
+        if (countDeltas != null) {
+            final Object delta = record.get(DELTA_KEY);
+            if (delta instanceof Long) {
+                countDeltas.carry(record.name, (Long) delta);
+            }
+        }
+    }
+
+    /**
+     * Sends a record, through the queue of the async emitter if any, which applies the emit policy on its own
+     * thread.
+     *
+     * @return false if the record was dropped, because it still failed or the circuit breaker is open
+     */
+    private boolean send(String tag, long timestamp, Map<String, Object> data) {
+        if (asyncEmitter != null) {
+            asyncEmitter.emit(tag, timestamp, data);
+            return true;
+        }
+        return emitPolicy.send(tag, timestamp, data);
+    }
+
+    private String tag(String name) {
+        return tags.tag(name);
+    }
+
+    /**
+     * Sends records to {@link Fluency}, converting their millisecond timestamps to seconds or EventTime.
+     * The EventTime of the previous record is reused while timestamps repeat, which they do within a report.
+     */
+    private static final class FluencySink implements RecordSink {
+        private final Fluency fluency;
+        private final boolean useEventTime;
+        private long lastMillis = Long.MIN_VALUE;
+        private EventTime lastEventTime;
+
+        private FluencySink(Fluency fluency, boolean useEventTime) {
+            this.fluency = fluency;
+            this.useEventTime = useEventTime;
+        }
+
+        @Override
+        public void emit(String tag, long timestamp, Map<String, Object> data) throws IOException {
+            if (!useEventTime) {
+                fluency.emit(tag, timestamp / 1000, data);
+                return;
+            }
+            if (timestamp != lastMillis) {
+                lastEventTime = EventTime.fromEpochMilli(timestamp);
+                lastMillis = timestamp;
+            }
+            fluency.emit(tag, lastEventTime, data);
+        }
     }
 }
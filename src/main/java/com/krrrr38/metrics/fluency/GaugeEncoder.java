@@ -0,0 +1,133 @@
+package com.krrrr38.metrics.fluency;
+
+import static com.codahale.metrics.MetricAttribute.COUNT;
+
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Puts gauge values into {@link MetricRecord}s, keeping numbers in primitive slots so that Fluency serializes
+ * them as plain MessagePack integers and floats, and applying a {@link NonScalarGaugePolicy} to other values.
+ */
+final class GaugeEncoder {
+    private static final String[] INDEX_KEYS = new String[64];
+
+    static {
+        for (int i = 0; i < INDEX_KEYS.length; i++) {
+            INDEX_KEYS[i] = String.valueOf(i);
+        }
+    }
+
+    private final NonScalarGaugePolicy nonScalarPolicy;
+
+    GaugeEncoder(NonScalarGaugePolicy nonScalarPolicy) {
+        this.nonScalarPolicy = nonScalarPolicy;
+    }
+
+    /**
+     * Puts the value of a gauge as {@code count}, or as the fields of a flattened value.
+     *
+     * @param data the record to put the value into
+     * @param value the gauge value, not null
+     */
+    void encode(MetricRecord data, Object value) {
+        if (putScalar(data, null, value)) {
+            return;
+        }
+        switch (nonScalarPolicy) {
+            case SKIP:
+                break;
+            case TO_STRING:
+                data.put(COUNT, value.toString());
+                break;
+            case FLATTEN:
+                flatten(data, value);
+                break;
+            default:
+                data.put(COUNT, value);
+        }
+    }
+
+    private static void flatten(MetricRecord data, Object value) {
+        if (value instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                putField(data, String.valueOf(entry.getKey()), entry.getValue());
+            }
+        } else if (value instanceof Collection) {
+            int index = 0;
+            for (Object element : (Collection<?>) value) {
+                putField(data, indexKey(index++), element);
+            }
+        } else if (value.getClass().isArray()) {
+            final int length = Array.getLength(value);
+            for (int i = 0; i < length; i++) {
+                putField(data, indexKey(i), Array.get(value, i));
+            }
+        } else {
+            data.put(COUNT, value.toString());
+        }
+    }
+
+    private static void putField(MetricRecord data, String key, Object value) {
+        if (value != null && !putScalar(data, key, value)) {
+            data.put(key, (Object) value.toString());
+        }
+    }
+
+    private static String indexKey(int index) {
+        return index < INDEX_KEYS.length ? INDEX_KEYS[index] : String.valueOf(index);
+    }
+
+    /**
+     * Puts a number, boolean or string under the given key, or as {@code count} if the key is null.
+     *
+     * @return false if the value is not scalar
+     */
+    private static boolean putScalar(MetricRecord data, String key, Object value) {
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte
+            || value instanceof AtomicLong || value instanceof AtomicInteger) {
+            putLong(data, key, ((Number) value).longValue());
+        } else if (value instanceof Double || value instanceof Float || value instanceof BigDecimal) {
+            putDouble(data, key, ((Number) value).doubleValue());
+        } else if (value instanceof BigInteger) {
+            final BigInteger integer = (BigInteger) value;
+            if (integer.bitLength() < Long.SIZE) {
+                putLong(data, key, integer.longValue());
+            } else {
+                putDouble(data, key, integer.doubleValue());
+            }
+        } else if (value instanceof Number) {
+            putDouble(data, key, ((Number) value).doubleValue());
+        } else if (value instanceof String || value instanceof Boolean) {
+            if (key == null) {
+                data.put(COUNT, value);
+            } else {
+                data.put(key, value);
+            }
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    private static void putLong(MetricRecord data, String key, long value) {
+        if (key == null) {
+            data.put(COUNT, value);
+        } else {
+            data.put(key, value);
+        }
+    }
+
+    private static void putDouble(MetricRecord data, String key, double value) {
+        if (key == null) {
+            data.put(COUNT, value);
+        } else {
+            data.put(key, value);
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package com.krrrr38.metrics.fluency;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistryListener;
+
+/**
+ * Evaluates gauges on a separate executor with a time budget, so that a gauge hitting JMX, a connection pool or
+ * a disk cannot stall the reporting cycle.
+ *
+ * All due gauges are submitted at the start of a cycle and their values are collected against a single
+ * deadline, the timeout after the start of the cycle, so that a cycle waits for the timeout at most once
+ * however many gauges are slow. A gauge which is not evaluated by the deadline is reported without a value. After a number of consecutive timeouts it is
+ * quarantined: it is skipped for 1, 2, 4, ... up to 64 reporting cycles, doubling each time it times out
+ * again and reset once it is evaluated in time. A gauge whose previous evaluation is still running is never
+ * evaluated twice. The evaluation latency of each gauge is tracked as a moving average.
+ * Entries are evicted when their gauges are removed from the registry.
+ */
+final class GaugeEvaluator extends MetricRegistryListener.Base {
+    private static final Logger LOGGER = LoggerFactory.getLogger(GaugeEvaluator.class);
+    private static final int MAX_QUARANTINE_CYCLES = 64;
+
+    private final ExecutorService executor;
+    private final long timeoutNanos;
+    private final int quarantineThreshold;
+    private final Clock clock;
+    private final Meter timeouts;
+    private final ConcurrentMap<String, State> states = new ConcurrentHashMap<String, State>();
+    private volatile long deadlineTick;
+
+    GaugeEvaluator(ExecutorService executor, long timeoutNanos, int quarantineThreshold, Clock clock,
+                   Meter timeouts) {
+        this.executor = executor;
+        this.timeoutNanos = timeoutNanos;
+        this.quarantineThreshold = quarantineThreshold;
+        this.clock = clock;
+        this.timeouts = timeouts;
+    }
+
+    /**
+     * Starts a reporting cycle, whose gauges are awaited until the timeout elapsed since now.
+     */
+    void startCycle() {
+        deadlineTick = clock.getTick() + timeoutNanos;
+    }
+
+    /**
+     * Submits the evaluation of the gauge for the current cycle, unless its previous evaluation is still running
+     * or it is quarantined.
+     *
+     * @param name the gauge name
+     * @param gauge the gauge
+     */
+    void submit(String name, final Gauge<?> gauge) {
+        final State state = state(name);
+        state.submitted = null;
+        if (state.pending != null && !state.pending.isDone()) {
+            LOGGER.debug("Skipped a gauge still being evaluated: name={}", name);
+            return;
+        }
+        state.pending = null;
+        if (state.skipCycles > 0) {
+            state.skipCycles--;
+            return;
+        }
+        state.submittedTick = clock.getTick();
+        try {
+            state.submitted = executor.submit(new Callable<Object>() {
+                @Override
+                public Object call() {
+                    return gauge.getValue();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            LOGGER.warn("Unable to evaluate a gauge: name={}, message={}", name, e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the value of the gauge submitted in the current cycle, waiting for it until the deadline of the
+     * cycle, or null if it was not evaluated in time, was not submitted, or failed.
+     *
+     * @param name the gauge name
+     *
+     * @return the value of the gauge, or null
+     */
+    Object evaluate(String name) {
+        final State state = states.get(name);
+        final Future<Object> future = state != null ? state.submitted : null;
+        if (future == null) {
+            return null;
+        }
+        state.submitted = null;
+        try {
+            final Object value = future.get(Math.max(0, deadlineTick - clock.getTick()), TimeUnit.NANOSECONDS);
+            state.update(clock.getTick() - state.submittedTick);
+            state.consecutiveTimeouts = 0;
+            state.quarantineCycles = 0;
+            return value;
+        } catch (TimeoutException e) {
+            state.pending = future;
+            state.update(clock.getTick() - state.submittedTick);
+            timeouts.mark();
+            timedOut(name, state);
+            return null;
+        } catch (ExecutionException e) {
+            state.update(clock.getTick() - state.submittedTick);
+            LOGGER.warn("Unable to evaluate a gauge: name={}, message={}", name, e.getCause().getMessage(),
+                        e.getCause());
+            return null;
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    private void timedOut(String name, State state) {
+        state.consecutiveTimeouts++;
+        if (quarantineThreshold == 0 || state.consecutiveTimeouts < quarantineThreshold) {
+            LOGGER.debug("Gauge evaluation timed out: name={}, latencyMillis={}", name, state.latencyMillis());
+            return;
+        }
+        state.quarantineCycles = Math.min(Math.max(1, state.quarantineCycles * 2), MAX_QUARANTINE_CYCLES);
+        state.skipCycles = state.quarantineCycles;
+        LOGGER.warn("Quarantined a slow gauge: name={}, latencyMillis={}, cycles={}",
+                    name, state.latencyMillis(), state.quarantineCycles);
+    }
+
+    private State state(String name) {
+        State state = states.get(name);
+        if (state == null) {
+            state = new State();
+            final State existing = states.putIfAbsent(name, state);
+            if (existing != null) {
+                state = existing;
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Returns the number of gauges which are skipped because of timeouts.
+     *
+     * @return the number of quarantined gauges
+     */
+    int quarantined() {
+        int quarantined = 0;
+        for (State state : states.values()) {
+            if (state.skipCycles > 0) {
+                quarantined++;
+            }
+        }
+        return quarantined;
+    }
+
+    @Override
+    public void onGaugeRemoved(String name) {
+        final State state = states.remove(name);
+        if (state != null && state.pending != null) {
+            state.pending.cancel(true);
+        }
+    }
+
+    /**
+     * The evaluation state of a gauge. A gauge is submitted and evaluated by one thread per reporting cycle.
+     */
+    private static final class State {
+        /**
+         * The evaluation submitted in the current cycle, or null if the gauge is skipped.
+         */
+        private volatile Future<Object> submitted;
+        private volatile long submittedTick;
+        /**
+         * An evaluation which did not complete by the deadline of its cycle.
+         */
+        private volatile Future<Object> pending;
+        private volatile int skipCycles;
+        private int consecutiveTimeouts;
+        private int quarantineCycles;
+        /**
+         * The exponentially weighted moving average of the evaluation latency, or -1 before the first one.
+         */
+        private long latencyNanos = -1;
+
+        private void update(long nanos) {
+            latencyNanos = latencyNanos < 0 ? nanos : latencyNanos + (nanos - latencyNanos) / 4;
+        }
+
+        private double latencyMillis() {
+            return latencyNanos / 1e6;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.krrrr38.metrics.fluency;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.UniformSnapshot;
+
+/**
+ * A {@link Reservoir} of the values recorded since its previous snapshot, so that each report of a
+ * {@link FluencyReporter} describes exactly its interval instead of a decaying window over several intervals.
+ *
+ * Values are recorded into one of two buffers, and {@link #getSnapshot()} swaps the buffers, waits for
+ * updates in flight on the previous buffer, and returns its values. Updates never lock or wait: they only
+ * increment counters around writing the value (a writer-reader phaser). Up to {@code size} values are kept
+ * per interval, sampled uniformly when more are recorded.
+ *
+ * Every snapshot resets the reservoir, so a metric using it must be read by a single reporter.
+ * <pre>{@code
+ * Timer timer = registry.register("requests", new Timer(new IntervalReservoir()));
+ * }</pre>
+ */
+public class IntervalReservoir implements Reservoir {
+    private static final int DEFAULT_SIZE = 1028;
+
+    private final AtomicLong startEpoch = new AtomicLong();
+    private final AtomicLong evenEndEpoch = new AtomicLong();
+    private final AtomicLong oddEndEpoch = new AtomicLong(Long.MIN_VALUE);
+    private volatile Buffer active;
+    private Buffer inactive;
+
+    /**
+     * Creates a reservoir keeping up to 1028 values per interval, as the default reservoirs do.
+     */
+    public IntervalReservoir() {
+        this(DEFAULT_SIZE);
+    }
+
+    /**
+     * Creates a reservoir keeping up to the given number of values per interval.
+     *
+     * @param size the maximum number of values of a snapshot
+     */
+    public IntervalReservoir(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("size must be positive: " + size);
+        }
+        this.active = new Buffer(size);
+        this.inactive = new Buffer(size);
+    }
+
+    @Override
+    public int size() {
+        return active.size();
+    }
+
+    @Override
+    public void update(long value) {
+        final long epoch = startEpoch.getAndIncrement();
+        try {
+            active.update(value);
+        } finally {
+            if (epoch < 0) {
+                oddEndEpoch.getAndIncrement();
+            } else {
+                evenEndEpoch.getAndIncrement();
+            }
+        }
+    }
+
+    /**
+     * Returns the values recorded since the previous snapshot and starts a new interval.
+     *
+     * @return the snapshot of the interval
+     */
+    @Override
+    public synchronized Snapshot getSnapshot() {
+        final Buffer previous = active;
+        inactive.reset();
+        active = inactive;
+        inactive = previous;
+        flipPhase();
+        return new UniformSnapshot(previous.values());
+    }
+
+    /**
+     * Starts a new phase of updates and waits until every update which started in the previous phase has
+     * finished, after which no update writes into the previous buffer.
+     */
+    private void flipPhase() {
+        final boolean nextPhaseIsEven = startEpoch.get() < 0;
+        final long initialStartValue = nextPhaseIsEven ? 0 : Long.MIN_VALUE;
+        (nextPhaseIsEven ? evenEndEpoch : oddEndEpoch).lazySet(initialStartValue);
+        final long startValueAtFlip = startEpoch.getAndSet(initialStartValue);
+        final AtomicLong previousEndEpoch = nextPhaseIsEven ? oddEndEpoch : evenEndEpoch;
+        while (previousEndEpoch.get() != startValueAtFlip) {
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Up to {@code size} values sampled uniformly from the values of an interval (Vitter's algorithm R).
+     */
+    private static final class Buffer {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLongArray values;
+
+        Buffer(int size) {
+            this.values = new AtomicLongArray(size);
+        }
+
+        void update(long value) {
+            final long c = count.incrementAndGet();
+            if (c <= values.length()) {
+                values.set((int) c - 1, value);
+            } else {
+                final long r = ThreadLocalRandom.current().nextLong(c);
+                if (r < values.length()) {
+                    values.set((int) r, value);
+                }
+            }
+        }
+
+        int size() {
+            return (int) Math.min(count.get(), values.length());
+        }
+
+        long[] values() {
+            final long[] copy = new long[size()];
+            for (int i = 0; i < copy.length; i++) {
+                copy[i] = values.get(i);
+            }
+            return copy;
+        }
+
+        void reset() {
+            count.set(0);
+        }
+    }
+}
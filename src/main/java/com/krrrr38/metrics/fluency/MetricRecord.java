@@ -0,0 +1,494 @@
+package com.krrrr38.metrics.fluency;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.msgpack.core.MessageBufferPacker;
+import org.msgpack.core.MessagePack;
+import org.msgpack.core.MessagePacker;
+
+import com.codahale.metrics.MetricAttribute;
+
+/**
+ * A reusable record of metric attribute values.
+ *
+ * Values are kept as primitives in slots indexed by {@link MetricAttribute} and only boxed while
+ * {@link org.komamitsu.fluency.Fluency} serializes the record, so one instance can be
+ * {@link #clear() cleared} and filled again for every metric instead of allocating a new
+ * {@link java.util.HashMap}.
+ * Values which are not a {@link MetricAttribute} (e.g. {@code delta}) are kept in extra slots after them.
+ * Entries are iterated in {@link MetricAttribute} declaration order, followed by the extra slots in
+ * insertion order.
+ * Fluency serializes the record synchronously in {@code emit}, so reusing it after emitting is safe.
+ */
+final class MetricRecord extends AbstractMap<String, Object> {
+    private static final MetricAttribute[] ATTRIBUTES = MetricAttribute.values();
+    private static final String[] KEYS = new String[ATTRIBUTES.length];
+    /**
+     * MessagePack encodings of the keys of every slot, encoded once so that {@link #writeTo(MessagePacker)}
+     * copies them instead of encoding the same strings as UTF-8 for every record.
+     */
+    private static final byte[][] PACKED_KEYS = new byte[ATTRIBUTES.length][];
+
+    static {
+        final MessageBufferPacker packer = MessagePack.newDefaultBufferPacker();
+        try {
+            for (MetricAttribute attribute : ATTRIBUTES) {
+                KEYS[attribute.ordinal()] = attribute.getCode();
+                packer.clear();
+                packer.packString(attribute.getCode());
+                PACKED_KEYS[attribute.ordinal()] = packer.toByteArray();
+            }
+        } catch (IOException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static final byte LONG = 1;
+    private static final byte DOUBLE = 2;
+    private static final byte OBJECT = 3;
+
+    /**
+     * The name of the metric of this record, which is not one of its entries. It traces a record dropped after
+     * leaving the reporting thread back to its metric.
+     */
+    String name;
+    private long[] longs = new long[ATTRIBUTES.length];
+    private double[] doubles = new double[ATTRIBUTES.length];
+    private Object[] objects = new Object[ATTRIBUTES.length];
+    private byte[] types = new byte[ATTRIBUTES.length];
+    private String[] extraKeys = new String[0];
+    private int present;
+    private int extraCount;
+    private boolean hasObjects;
+    private final EntrySet entrySet = new EntrySet();
+
+    void put(MetricAttribute attribute, long value) {
+        present |= 1 << attribute.ordinal();
+        setLong(attribute.ordinal(), value);
+    }
+
+    void put(MetricAttribute attribute, double value) {
+        present |= 1 << attribute.ordinal();
+        setDouble(attribute.ordinal(), value);
+    }
+
+    void put(MetricAttribute attribute, Object value) {
+        present |= 1 << attribute.ordinal();
+        setObject(attribute.ordinal(), value);
+    }
+
+    void put(String key, long value) {
+        setLong(slot(key), value);
+    }
+
+    void put(String key, double value) {
+        setDouble(slot(key), value);
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        final int slot = existingSlot(key);
+        final Object previous = slot < 0 ? null : valueAt(slot);
+        setObject(slot < 0 ? slot(key) : slot, value);
+        return previous;
+    }
+
+    private void setLong(int slot, long value) {
+        longs[slot] = value;
+        types[slot] = LONG;
+    }
+
+    private void setDouble(int slot, double value) {
+        doubles[slot] = value;
+        types[slot] = DOUBLE;
+    }
+
+    private void setObject(int slot, Object value) {
+        objects[slot] = value;
+        types[slot] = OBJECT;
+        hasObjects = true;
+    }
+
+    /**
+     * Returns the slot of the given key, appending an extra slot if the key is not in this record yet.
+     */
+    private int slot(String key) {
+        final int existing = existingSlot(key);
+        if (existing >= 0) {
+            return existing;
+        }
+        for (int i = 0; i < KEYS.length; i++) {
+            if (KEYS[i].equals(key)) {
+                present |= 1 << i;
+                return i;
+            }
+        }
+        if (extraCount == extraKeys.length) {
+            final int capacity = Math.max(4, extraKeys.length * 2);
+            extraKeys = Arrays.copyOf(extraKeys, capacity);
+            longs = Arrays.copyOf(longs, ATTRIBUTES.length + capacity);
+            doubles = Arrays.copyOf(doubles, ATTRIBUTES.length + capacity);
+            objects = Arrays.copyOf(objects, ATTRIBUTES.length + capacity);
+            types = Arrays.copyOf(types, ATTRIBUTES.length + capacity);
+        }
+        extraKeys[extraCount] = key;
+        return ATTRIBUTES.length + extraCount++;
+    }
+
+    /**
+     * Returns the slot of the given key if it is in this record, or -1.
+     */
+    private int existingSlot(String key) {
+        for (int i = 0; i < KEYS.length; i++) {
+            if ((present & (1 << i)) != 0 && KEYS[i].equals(key)) {
+                return i;
+            }
+        }
+        for (int i = 0; i < extraCount; i++) {
+            if (extraKeys[i].equals(key)) {
+                return ATTRIBUTES.length + i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public void clear() {
+        if (hasObjects) {
+            Arrays.fill(objects, null);
+            hasObjects = false;
+        }
+        Arrays.fill(extraKeys, 0, extraCount, null);
+        present = 0;
+        extraCount = 0;
+    }
+
+    @Override
+    public int size() {
+        return Integer.bitCount(present) + extraCount;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return present == 0 && extraCount == 0;
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        return entrySet;
+    }
+
+    /**
+     * Returns the value of the given key if it is a long, without boxing it.
+     *
+     * @param key the key
+     * @param defaultValue the value to return if the key is absent or its value is not a long
+     *
+     * @return the long value of the key, or {@code defaultValue}
+     */
+    long getLong(String key, long defaultValue) {
+        final int slot = existingSlot(key);
+        return slot >= 0 && types[slot] == LONG ? longs[slot] : defaultValue;
+    }
+
+    /**
+     * Returns a 64-bit hash of the keys and values of this record, computed from the primitive slots without
+     * serializing the record.
+     *
+     * @return the fingerprint of this record
+     */
+    long fingerprint() {
+        long hash = 1;
+        int remaining = present;
+        while (remaining != 0) {
+            final int slot = Integer.numberOfTrailingZeros(remaining);
+            remaining &= remaining - 1;
+            hash = mix(hash, slot);
+            hash = mix(hash, valueBits(slot));
+        }
+        for (int i = 0; i < extraCount; i++) {
+            hash = mix(hash, extraKeys[i].hashCode());
+            hash = mix(hash, valueBits(ATTRIBUTES.length + i));
+        }
+        return hash;
+    }
+
+    /**
+     * Returns the approximate size of this record encoded as a MessagePack map, computed without serializing
+     * it. Values which are neither primitives, strings nor booleans are counted as 9 bytes.
+     *
+     * @return the estimated encoded size in bytes
+     */
+    int estimatedSize() {
+        final int size = size();
+        int bytes = size < 16 ? 1 : size < 65536 ? 3 : 5;
+        int remaining = present;
+        while (remaining != 0) {
+            final int slot = Integer.numberOfTrailingZeros(remaining);
+            remaining &= remaining - 1;
+            bytes += estimatedSize(KEYS[slot]) + estimatedValueSize(slot);
+        }
+        for (int i = 0; i < extraCount; i++) {
+            bytes += estimatedSize(extraKeys[i]) + estimatedValueSize(ATTRIBUTES.length + i);
+        }
+        return bytes;
+    }
+
+    /**
+     * Writes this record as a MessagePack map, reading values from the primitive slots without boxing them.
+     *
+     * @param packer the packer to write to
+     *
+     * @throws IOException if the packer could not write
+     */
+    void writeTo(MessagePacker packer) throws IOException {
+        packer.packMapHeader(size());
+        int remaining = present;
+        while (remaining != 0) {
+            final int slot = Integer.numberOfTrailingZeros(remaining);
+            remaining &= remaining - 1;
+            packer.writePayload(PACKED_KEYS[slot]);
+            writeValue(packer, slot);
+        }
+        for (int i = 0; i < extraCount; i++) {
+            packer.packString(extraKeys[i]);
+            writeValue(packer, ATTRIBUTES.length + i);
+        }
+    }
+
+    private void writeValue(MessagePacker packer, int slot) throws IOException {
+        switch (types[slot]) {
+            case LONG:
+                packer.packLong(longs[slot]);
+                break;
+            case DOUBLE:
+                packer.packDouble(doubles[slot]);
+                break;
+            default:
+                write(packer, objects[slot]);
+        }
+    }
+
+    /**
+     * Writes the given value as MessagePack in the same way as Fluency serializes records: records and maps
+     * as maps, integral numbers as integers, other numbers as floats, byte arrays as binaries, long arrays as
+     * arrays, and values which are neither strings nor booleans as their {@code toString()}.
+     *
+     * @param packer the packer to write to
+     * @param value the value to write
+     *
+     * @throws IOException if the packer could not write
+     */
+    static void write(MessagePacker packer, Object value) throws IOException {
+        if (value == null) {
+            packer.packNil();
+        } else if (value instanceof MetricRecord) {
+            ((MetricRecord) value).writeTo(packer);
+        } else if (value instanceof Map) {
+            final Map<?, ?> map = (Map<?, ?>) value;
+            packer.packMapHeader(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                packer.packString(String.valueOf(entry.getKey()));
+                write(packer, entry.getValue());
+            }
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short
+                   || value instanceof Byte) {
+            packer.packLong(((Number) value).longValue());
+        } else if (value instanceof Number) {
+            packer.packDouble(((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            packer.packBoolean((Boolean) value);
+        } else if (value instanceof byte[]) {
+            final byte[] bytes = (byte[]) value;
+            packer.packBinaryHeader(bytes.length);
+            packer.writePayload(bytes);
+        } else if (value instanceof long[]) {
+            final long[] longs = (long[]) value;
+            packer.packArrayHeader(longs.length);
+            for (long element : longs) {
+                packer.packLong(element);
+            }
+        } else {
+            packer.packString(value.toString());
+        }
+    }
+
+    /**
+     * Returns the approximate MessagePack size of the given string, assuming one byte per character.
+     */
+    static int estimatedSize(String value) {
+        final int length = value.length();
+        return (length < 32 ? 1 : length < 256 ? 2 : length < 65536 ? 3 : 5) + length;
+    }
+
+    private int estimatedValueSize(int slot) {
+        switch (types[slot]) {
+            case LONG:
+                return estimatedSize(longs[slot]);
+            case DOUBLE:
+                return 9;
+            default:
+                final Object value = objects[slot];
+                if (value == null || value instanceof Boolean) {
+                    return 1;
+                }
+                if (value instanceof String) {
+                    return estimatedSize((String) value);
+                }
+                if (value instanceof byte[]) {
+                    final int length = ((byte[]) value).length;
+                    return (length < 256 ? 2 : length < 65536 ? 3 : 5) + length;
+                }
+                if (value instanceof long[]) {
+                    final long[] longs = (long[]) value;
+                    int bytes = longs.length < 16 ? 1 : longs.length < 65536 ? 3 : 5;
+                    for (long element : longs) {
+                        bytes += estimatedSize(element);
+                    }
+                    return bytes;
+                }
+                if (value instanceof Long || value instanceof Integer || value instanceof Short
+                    || value instanceof Byte) {
+                    return estimatedSize(((Number) value).longValue());
+                }
+                return 9;
+        }
+    }
+
+    private static int estimatedSize(long value) {
+        if (value >= -32 && value < 128) {
+            return 1;
+        }
+        if (value >= Byte.MIN_VALUE && value < 256) {
+            return 2;
+        }
+        if (value >= Short.MIN_VALUE && value < 65536) {
+            return 3;
+        }
+        if (value >= Integer.MIN_VALUE && value < 4294967296L) {
+            return 5;
+        }
+        return 9;
+    }
+
+    private long valueBits(int slot) {
+        switch (types[slot]) {
+            case LONG:
+                return longs[slot];
+            case DOUBLE:
+                return Double.doubleToLongBits(doubles[slot]);
+            default:
+                final Object value = objects[slot];
+                if (value instanceof byte[]) {
+                    return Arrays.hashCode((byte[]) value);
+                }
+                if (value instanceof long[]) {
+                    return Arrays.hashCode((long[]) value);
+                }
+                return value == null ? 0 : value.hashCode();
+        }
+    }
+
+    private static long mix(long hash, long value) {
+        final long h = (hash ^ value) * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 32);
+    }
+
+    private String keyAt(int slot) {
+        return slot < ATTRIBUTES.length ? KEYS[slot] : extraKeys[slot - ATTRIBUTES.length];
+    }
+
+    private Object valueAt(int slot) {
+        switch (types[slot]) {
+            case LONG:
+                return longs[slot];
+            case DOUBLE:
+                return doubles[slot];
+            default:
+                return objects[slot];
+        }
+    }
+
+    private final class EntrySet extends AbstractSet<Map.Entry<String, Object>> {
+        @Override
+        public Iterator<Map.Entry<String, Object>> iterator() {
+            return new EntryIterator();
+        }
+
+        @Override
+        public int size() {
+            return MetricRecord.this.size();
+        }
+    }
+
+    /**
+     * An iterator which is also the current entry, so iterating allocates a single object per record.
+     * Entries must not be retained after advancing the iterator.
+     */
+    private final class EntryIterator implements Iterator<Map.Entry<String, Object>>, Map.Entry<String, Object> {
+        private int remaining = present;
+        private int nextExtra = 0;
+        private int current = -1;
+
+        @Override
+        public boolean hasNext() {
+            return remaining != 0 || nextExtra < extraCount;
+        }
+
+        @Override
+        public Map.Entry<String, Object> next() {
+            if (remaining != 0) {
+                current = Integer.numberOfTrailingZeros(remaining);
+                remaining &= remaining - 1;
+            } else if (nextExtra < extraCount) {
+                current = ATTRIBUTES.length + nextExtra++;
+            } else {
+                throw new NoSuchElementException();
+            }
+            return this;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String getKey() {
+            return keyAt(current);
+        }
+
+        @Override
+        public Object getValue() {
+            return valueAt(current);
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            final Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            final Object value = getValue();
+            return getKey().equals(e.getKey()) && (value == null ? e.getValue() == null : value.equals(e.getValue()));
+        }
+
+        @Override
+        public int hashCode() {
+            final Object value = getValue();
+            return getKey().hashCode() ^ (value == null ? 0 : value.hashCode());
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.krrrr38.metrics.fluency;
+
+/**
+ * The types of metrics reported by {@link FluencyReporter}.
+ */
+enum MetricType {
+    GAUGE("gauges"),
+    COUNTER("counters"),
+    HISTOGRAM("histograms"),
+    METER("meters"),
+    TIMER("timers");
+
+    private final String pluralName;
+
+    MetricType(String pluralName) {
+        this.pluralName = pluralName;
+    }
+
+    /**
+     * Returns the plural name of the type used in metric names, e.g. {@code gauges}.
+     *
+     * @return the plural name of the type
+     */
+    String pluralName() {
+        return pluralName;
+    }
+}
@@ -0,0 +1,27 @@
+package com.krrrr38.metrics.fluency;
+
+/**
+ * How to report gauge values which are neither numbers, booleans nor strings.
+ *
+ * @see FluencyReporter.Builder#nonScalarGauges(NonScalarGaugePolicy)
+ */
+public enum NonScalarGaugePolicy {
+    /**
+     * Hand the value to Fluency's serializer as it is, e.g. a {@link java.util.Map} as a nested map.
+     */
+    RAW,
+    /**
+     * Don't report the gauge.
+     */
+    SKIP,
+    /**
+     * Report the {@code toString()} of the value as {@code count}.
+     */
+    TO_STRING,
+    /**
+     * Report the entries of a {@link java.util.Map} as fields keyed by their keys, and the elements of a
+     * {@link java.util.Collection} or an array as fields keyed by their indexes. Nested values which are not
+     * scalar are reported as their {@code toString()}. Other values are reported as their {@code toString()}.
+     */
+    FLATTEN
+}
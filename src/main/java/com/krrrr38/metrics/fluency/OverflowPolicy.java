@@ -0,0 +1,21 @@
+package com.krrrr38.metrics.fluency;
+
+/**
+ * What to do with records when the queue of an asynchronous {@link FluencyReporter} is full.
+ *
+ * @see FluencyReporter.Builder#emitAsynchronously(int)
+ */
+public enum OverflowPolicy {
+    /**
+     * Drop the oldest queued record to make room for the new one.
+     */
+    DROP_OLDEST,
+    /**
+     * Drop the new record.
+     */
+    DROP_NEWEST,
+    /**
+     * Wait for room up to the configured timeout, then drop the new record.
+     */
+    BLOCK
+}
@@ -0,0 +1,106 @@
+package com.krrrr38.metrics.fluency;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.codahale.metrics.MetricAttribute;
+import com.codahale.metrics.Snapshot;
+
+/**
+ * Quantiles reported in addition to the percentile attributes, keyed like them by the digits of the quantile,
+ * e.g. {@code p90} for 0.9 and {@code p9999} for 0.9999.
+ *
+ * Quantiles are sorted and their keys resolved once, to the {@link MetricAttribute} slot of a record when they
+ * are one of the percentile attributes, and each value is looked up with
+ * {@link Snapshot#getValue(double)}, which is a constant-time index into the sorted values of a uniform
+ * snapshot and a binary search over the cumulative weights of a weighted one. Sketches and buckets, which need
+ * the values themselves, read them with {@link SnapshotValues}, which resamples weighted snapshots with the same
+ * {@link Snapshot#getValue(double)}, so no attribute treats weighted values as equally weighted.
+ */
+final class Quantiles {
+    private final double[] quantiles;
+    private final String[] keys;
+    private final MetricAttribute[] attributes;
+
+    Quantiles(double[] quantiles) {
+        final double[] sorted = quantiles.clone();
+        Arrays.sort(sorted);
+        int distinct = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                sorted[distinct++] = sorted[i];
+            }
+        }
+        this.quantiles = Arrays.copyOf(sorted, distinct);
+        this.keys = new String[distinct];
+        this.attributes = new MetricAttribute[distinct];
+        for (int i = 0; i < distinct; i++) {
+            keys[i] = key(this.quantiles[i]);
+            for (MetricAttribute attribute : MetricAttribute.values()) {
+                if (attribute.getCode().equals(keys[i])) {
+                    attributes[i] = attribute;
+                }
+            }
+        }
+    }
+
+    /**
+     * Puts the quantiles of the snapshot multiplied by the given factor.
+     *
+     * @param data the record to put the values into
+     * @param snapshot the snapshot
+     * @param factor the factor to convert values by, e.g. from nanoseconds to the duration unit
+     */
+    void put(MetricRecord data, Snapshot snapshot, double factor) {
+        for (int i = 0; i < quantiles.length; i++) {
+            final double value = snapshot.getValue(quantiles[i]) * factor;
+            if (attributes[i] != null) {
+                data.put(attributes[i], value);
+            } else {
+                data.put(keys[i], value);
+            }
+        }
+    }
+
+    /**
+     * Checks that distinct quantiles have distinct keys, which are not the key of a percentile attribute of
+     * another quantile, e.g. 0.0999 would be reported as {@code p999} like 0.999.
+     *
+     * @param quantiles the quantiles in [0, 1]
+     *
+     * @throws IllegalArgumentException if two quantiles have the same key
+     */
+    static void checkKeys(double[] quantiles) {
+        final Map<String, Double> keys = new HashMap<String, Double>();
+        keys.put(MetricAttribute.P50.getCode(), 0.5);
+        keys.put(MetricAttribute.P75.getCode(), 0.75);
+        keys.put(MetricAttribute.P95.getCode(), 0.95);
+        keys.put(MetricAttribute.P98.getCode(), 0.98);
+        keys.put(MetricAttribute.P99.getCode(), 0.99);
+        keys.put(MetricAttribute.P999.getCode(), 0.999);
+        for (double quantile : quantiles) {
+            final String key = key(quantile);
+            final Double existing = keys.put(key, quantile);
+            if (existing != null && existing != quantile) {
+                throw new IllegalArgumentException(
+                        "quantile " + quantile + " has the same key as " + existing + ": " + key);
+            }
+        }
+    }
+
+    /**
+     * Returns the key of a quantile, the digits of its percentage without the decimal point.
+     *
+     * @param quantile the quantile in [0, 1]
+     *
+     * @return the key of the quantile
+     */
+    static String key(double quantile) {
+        final String percentage = new BigDecimal(Double.toString(quantile)).movePointRight(2)
+                                                                           .stripTrailingZeros()
+                                                                           .toPlainString();
+        return 'p' + percentage.replace(".", "");
+    }
+}
@@ -0,0 +1,148 @@
+package com.krrrr38.metrics.fluency;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A reusable batch of {@link MetricRecord}s keyed by metric name, in insertion order.
+ *
+ * Unlike a {@link java.util.HashMap}, adding a metric allocates no entry, and each slot keeps its record after
+ * {@link #clear()} so that the next batch fills the same records again.
+ * Metric names are unique in a registry, so {@link #add(String, MetricRecord)} does not look up existing keys.
+ */
+final class RecordBatch extends AbstractMap<String, Object> {
+    private final String[] names;
+    private final MetricRecord[] records;
+    private int size;
+    private final EntrySet entrySet = new EntrySet();
+
+    RecordBatch(int capacity) {
+        this.names = new String[capacity];
+        this.records = new MetricRecord[capacity];
+    }
+
+    /**
+     * Returns the cleared record of the next slot, which is added with {@link #add(String, MetricRecord)}.
+     *
+     * @return the record of the next slot
+     */
+    MetricRecord nextRecord() {
+        MetricRecord record = records[size];
+        if (record == null) {
+            record = new MetricRecord();
+            records[size] = record;
+        }
+        record.clear();
+        return record;
+    }
+
+    /**
+     * Adds the record of a metric into the next slot.
+     *
+     * @param name the metric name
+     * @param record the record of the metric, usually {@link #nextRecord()}
+     */
+    void add(String name, MetricRecord record) {
+        names[size] = name;
+        records[size] = record;
+        size++;
+    }
+
+    /**
+     * Returns whether the batch has no free slot left.
+     *
+     * @return true if the batch is full
+     */
+    boolean isFull() {
+        return size == names.length;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(names, 0, size, null);
+        size = 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        return entrySet;
+    }
+
+    private final class EntrySet extends AbstractSet<Map.Entry<String, Object>> {
+        @Override
+        public Iterator<Map.Entry<String, Object>> iterator() {
+            return new EntryIterator();
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    /**
+     * An iterator which is also the current entry, as {@link MetricRecord} iterates its values.
+     */
+    private final class EntryIterator implements Iterator<Map.Entry<String, Object>>, Map.Entry<String, Object> {
+        private int next = 0;
+        private int current = -1;
+
+        @Override
+        public boolean hasNext() {
+            return next < size;
+        }
+
+        @Override
+        public Map.Entry<String, Object> next() {
+            if (next >= size) {
+                throw new NoSuchElementException();
+            }
+            current = next++;
+            return this;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String getKey() {
+            return names[current];
+        }
+
+        @Override
+        public Object getValue() {
+            return records[current];
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            final Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+            return getKey().equals(e.getKey()) && getValue().equals(e.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return getKey().hashCode() ^ getValue().hashCode();
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.krrrr38.metrics.fluency;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * A destination of records sent by {@link FluencyReporter}, e.g. {@link org.komamitsu.fluency.Fluency} itself or
+ * a queue in front of it.
+ */
+interface RecordSink {
+    /**
+     * Sends a record.
+     *
+     * @param tag the fluentd tag
+     * @param timestamp the event time in milliseconds since the epoch
+     * @param data the record, which must not be retained by the sink unless it owns it
+     *
+     * @throws IOException if the record could not be sent
+     */
+    void emit(String tag, long timestamp, Map<String, Object> data) throws IOException;
+}
@@ -0,0 +1,159 @@
+package com.krrrr38.metrics.fluency;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+/**
+ * Metrics about a {@link FluencyReporter} itself, registered into a separate (or the same) registry so that
+ * it can be alerted when reporting does not keep up with the reporting interval.
+ *
+ * Each reporter registers its own metrics under a prefix of its own, so several reporters can share a registry.
+ */
+final class ReporterMetrics {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReporterMetrics.class);
+
+    private final MetricRegistry registry;
+    private final String prefix;
+    private final Map<String, Metric> metrics = new ConcurrentHashMap<String, Metric>();
+
+    final Timer cycle;
+    final Timer gauges;
+    final Timer counters;
+    final Timer histograms;
+    final Timer meters;
+    final Timer timers;
+    final Meter records;
+    final Meter bytes;
+    final Meter failures;
+    final Meter skipped;
+    final Meter dropped;
+    final Meter spilled;
+    final Meter replayed;
+    final Meter gaugeTimeouts;
+    private final Meter[] droppedByType;
+
+    ReporterMetrics(MetricRegistry registry, String name, final ChangeDetector changeDetector) {
+        this.registry = registry;
+        synchronized (registry) {
+            this.prefix = prefix(registry, name);
+            this.cycle = register(new Timer(), "cycle");
+            this.gauges = register(new Timer(), "collect", "gauges");
+            this.counters = register(new Timer(), "collect", "counters");
+            this.histograms = register(new Timer(), "collect", "histograms");
+            this.meters = register(new Timer(), "collect", "meters");
+            this.timers = register(new Timer(), "collect", "timers");
+            this.records = register(new Meter(), "records");
+            this.bytes = register(new Meter(), "bytes");
+            this.failures = register(new Meter(), "failures");
+            this.skipped = register(new Meter(), "skipped");
+            this.dropped = register(new Meter(), "dropped");
+            this.spilled = register(new Meter(), "spilled");
+            this.replayed = register(new Meter(), "replayed");
+            this.gaugeTimeouts = register(new Meter(), "gauge", "timeouts");
+            this.droppedByType = new Meter[MetricType.values().length];
+            for (MetricType type : MetricType.values()) {
+                droppedByType[type.ordinal()] = register(new Meter(), "dropped", type.pluralName());
+            }
+        }
+        if (changeDetector != null) {
+            register(new Gauge<Long>() {
+                @Override
+                public Long getValue() {
+                    return changeDetector.estimatedBytes();
+                }
+            }, "tracked", "bytes");
+        }
+    }
+
+    /**
+     * Returns the prefix of the metric names, numbering it if another reporter already uses it in the registry.
+     */
+    private static String prefix(MetricRegistry registry, String name) {
+        final String base = MetricRegistry.name(FluencyReporter.class, name);
+        String prefix = base;
+        for (int instance = 2; registry.getNames().contains(MetricRegistry.name(prefix, "cycle")); instance++) {
+            prefix = MetricRegistry.name(base, String.valueOf(instance));
+        }
+        if (!prefix.equals(base)) {
+            LOGGER.warn("Registered the metrics of the reporter under another prefix, because {} is used by "
+                        + "another reporter: prefix={}", base, prefix);
+        }
+        return prefix;
+    }
+
+    /**
+     * Registers the number of gauges quarantined by the given evaluator.
+     *
+     * @param gaugeEvaluator the evaluator of gauges
+     */
+    void track(final GaugeEvaluator gaugeEvaluator) {
+        register(new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return gaugeEvaluator.quarantined();
+            }
+        }, "gauge", "quarantined");
+    }
+
+    /**
+     * Registers the current reporting interval and whether low-priority attributes are dropped by the given
+     * schedule.
+     *
+     * @param adaptiveSchedule the adaptive schedule of the reporter
+     */
+    void track(final AdaptiveSchedule adaptiveSchedule) {
+        register(new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return adaptiveSchedule.intervalMillis();
+            }
+        }, "interval", "millis");
+        register(new Gauge<Boolean>() {
+            @Override
+            public Boolean getValue() {
+                return adaptiveSchedule.degraded();
+            }
+        }, "degraded");
+    }
+
+    /**
+     * Returns the meter of records of the given metric type which were dropped after failing to be sent.
+     *
+     * @param type the metric type
+     *
+     * @return the meter of dropped records of the type
+     */
+    Meter dropped(MetricType type) {
+        return droppedByType[type.ordinal()];
+    }
+
+    private <T extends Metric> T register(T metric, String... names) {
+        final String name = MetricRegistry.name(prefix, names);
+        registry.register(name, metric);
+        metrics.put(name, metric);
+        return metric;
+    }
+
+    /**
+     * Removes the metrics of the reporter from the registry, leaving metrics registered under the same names by
+     * others.
+     */
+    void remove() {
+        registry.removeMatching(new MetricFilter() {
+            @Override
+            public boolean matches(String name, Metric metric) {
+                return metrics.get(name) == metric;
+            }
+        });
+    }
+}
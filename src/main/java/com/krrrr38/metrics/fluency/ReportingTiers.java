@@ -0,0 +1,145 @@
+package com.krrrr38.metrics.fluency;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistryListener;
+import com.codahale.metrics.Timer;
+
+/**
+ * Reporting tiers which report the metrics matching a filter less often than every report.
+ *
+ * A metric belongs to the first tier whose filter matches it, or is reported on every report otherwise.
+ * A tier is due when a report falls into a new multiple of its period since the epoch, allowing half of the
+ * reporting period of jitter, so tiers whose periods are multiples of the reporting period are reported
+ * every {@code period / reporting period} reports.
+ * The tiers of metrics are resolved when they are added to the registry and evicted when they are removed,
+ * so filters are not evaluated on every report.
+ */
+final class ReportingTiers extends MetricRegistryListener.Base {
+    private static final Integer NO_TIER = -1;
+
+    private final MetricFilter[] filters;
+    private final long[] periodsMillis;
+    private final long[] lastSlots;
+    private final boolean[] due;
+    private final ConcurrentMap<String, Integer> tiers = new ConcurrentHashMap<String, Integer>();
+
+    ReportingTiers(Map<MetricFilter, Long> periodsMillis) {
+        this.filters = new MetricFilter[periodsMillis.size()];
+        this.periodsMillis = new long[periodsMillis.size()];
+        this.lastSlots = new long[periodsMillis.size()];
+        this.due = new boolean[periodsMillis.size()];
+        int i = 0;
+        for (Map.Entry<MetricFilter, Long> entry : periodsMillis.entrySet()) {
+            this.filters[i] = entry.getKey();
+            this.periodsMillis[i] = entry.getValue();
+            this.lastSlots[i] = Long.MIN_VALUE;
+            i++;
+        }
+    }
+
+    /**
+     * Decides which tiers are due in a report.
+     *
+     * @param millis the time of the report
+     * @param toleranceMillis the jitter allowed before a multiple of a period
+     */
+    void tick(long millis, long toleranceMillis) {
+        for (int i = 0; i < filters.length; i++) {
+            final long slot = (millis + toleranceMillis) / periodsMillis[i];
+            due[i] = slot != lastSlots[i];
+            lastSlots[i] = slot;
+        }
+    }
+
+    /**
+     * Returns whether the metric is reported in the current report.
+     *
+     * @param name the metric name
+     * @param metric the metric
+     *
+     * @return false if the tier of the metric is not due
+     */
+    boolean isDue(String name, Metric metric) {
+        Integer tier = tiers.get(name);
+        if (tier == null) {
+            tier = tierOf(name, metric);
+        }
+        return tier < 0 || due[tier];
+    }
+
+    private Integer tierOf(String name, Metric metric) {
+        for (int i = 0; i < filters.length; i++) {
+            if (filters[i].matches(name, metric)) {
+                return i;
+            }
+        }
+        return NO_TIER;
+    }
+
+    private void add(String name, Metric metric) {
+        tiers.put(name, tierOf(name, metric));
+    }
+
+    private void remove(String name) {
+        tiers.remove(name);
+    }
+
+    @Override
+    public void onGaugeAdded(String name, Gauge<?> gauge) {
+        add(name, gauge);
+    }
+
+    @Override
+    public void onGaugeRemoved(String name) {
+        remove(name);
+    }
+
+    @Override
+    public void onCounterAdded(String name, Counter counter) {
+        add(name, counter);
+    }
+
+    @Override
+    public void onCounterRemoved(String name) {
+        remove(name);
+    }
+
+    @Override
+    public void onHistogramAdded(String name, Histogram histogram) {
+        add(name, histogram);
+    }
+
+    @Override
+    public void onHistogramRemoved(String name) {
+        remove(name);
+    }
+
+    @Override
+    public void onMeterAdded(String name, Meter meter) {
+        add(name, meter);
+    }
+
+    @Override
+    public void onMeterRemoved(String name) {
+        remove(name);
+    }
+
+    @Override
+    public void onTimerAdded(String name, Timer timer) {
+        add(name, timer);
+    }
+
+    @Override
+    public void onTimerRemoved(String name) {
+        remove(name);
+    }
+}
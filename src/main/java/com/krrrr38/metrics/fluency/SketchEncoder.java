@@ -0,0 +1,171 @@
+package com.krrrr38.metrics.fluency;
+
+import java.io.IOException;
+
+import org.msgpack.core.MessageBufferPacker;
+import org.msgpack.core.MessagePack;
+
+import com.codahale.metrics.Snapshot;
+
+/**
+ * Encodes the values of a {@link Snapshot} as a mergeable sketch with logarithmic buckets, so that percentiles
+ * of many hosts can be computed downstream by adding up bucket counts instead of combining per-host
+ * percentiles.
+ *
+ * A value {@code v > 0} is counted in the bucket {@code ceil(log(v) / log(gamma))} where
+ * {@code gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy)}, and estimated as
+ * {@code 2 * gamma^i / (gamma + 1)} within {@code relativeAccuracy} of any value in the bucket {@code i}.
+ * Negative values are counted by their absolute value in separate buckets.
+ * When there are more than {@code maxBuckets} buckets of a sign, the lowest buckets are collapsed into one,
+ * so that the size of a sketch is bounded and only the accuracy of the lowest values is lost.
+ *
+ * A sketch is a MessagePack array of {@code [relativeAccuracy, zeroCount, positive, negative]} serialized into
+ * a binary value, where {@code positive} and {@code negative} are flat arrays of
+ * {@code [index, count, indexDelta, count, ...]} in ascending index order.
+ *
+ * The values are read with {@link SnapshotValues}, honouring the weights of weighted snapshots, and the bucket
+ * counts are scaled to the number of updates since the previous report, so that sketches of hosts with
+ * different rates merge in proportion. The values should therefore cover the same interval, i.e. come from an
+ * {@link IntervalReservoir} or a {@link StripedReservoir}; the values of other reservoirs span a longer,
+ * reservoir-specific window, which only the scaled counts do not.
+ */
+final class SketchEncoder {
+    private final double relativeAccuracy;
+    private final double logGamma;
+    private final int maxBuckets;
+    /**
+     * Buffers per thread, because histograms and timers may be collected concurrently.
+     */
+    private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
+    SketchEncoder(double relativeAccuracy, int maxBuckets) {
+        this.relativeAccuracy = relativeAccuracy;
+        this.logGamma = Math.log((1 + relativeAccuracy) / (1 - relativeAccuracy));
+        this.maxBuckets = maxBuckets;
+    }
+
+    /**
+     * Encodes the values of the snapshot multiplied by the given factor, scaling the bucket counts so that
+     * they add up to the given number of updates.
+     *
+     * @param snapshot the snapshot to encode
+     * @param factor the factor to convert values by, e.g. from nanoseconds to the duration unit
+     * @param count the number of updates of the metric since the previous report
+     *
+     * @return the sketch
+     */
+    byte[] encode(Snapshot snapshot, double factor, long count) {
+        final long[] values = SnapshotValues.of(snapshot);
+        final Scratch scratch = this.scratch.get();
+        final int[] positive = scratch.positive(values.length);
+        final int[] negative = scratch.negative(values.length);
+        int positiveCount = 0;
+        int negativeCount = 0;
+        int zeroCount = 0;
+        for (long value : values) {
+            final double scaled = value * factor;
+            if (scaled > 0) {
+                positive[positiveCount++] = index(scaled);
+            } else if (scaled < 0) {
+                negative[negativeCount++] = index(-scaled);
+            } else {
+                zeroCount++;
+            }
+        }
+        // values are sorted, so negative values are in descending order of their buckets
+        reverse(negative, negativeCount);
+        final double weight = values.length > 0 ? (double) count / values.length : 0;
+        final MessageBufferPacker packer = scratch.packer;
+        packer.clear();
+        try {
+            packer.packArrayHeader(4);
+            packer.packDouble(relativeAccuracy);
+            packer.packLong(Math.round(zeroCount * weight));
+            packBuckets(packer, positive, positiveCount, zeroCount, weight);
+            packBuckets(packer, negative, negativeCount, zeroCount + positiveCount, weight);
+            return packer.toByteArray();
+        } catch (IOException e) {
+            // MessageBufferPacker writes to memory
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private int index(double value) {
+        return (int) Math.ceil(Math.log(value) / logGamma);
+    }
+
+    private static void reverse(int[] indexes, int length) {
+        for (int i = 0, j = length - 1; i < j; i++, j--) {
+            final int index = indexes[i];
+            indexes[i] = indexes[j];
+            indexes[j] = index;
+        }
+    }
+
+    /**
+     * Packs the counts of the given ascending bucket indexes multiplied by the given weight, collapsing the
+     * lowest buckets over {@code maxBuckets}. Counts are rounded cumulatively over the whole sketch, following
+     * the given number of values packed before, so that all counts add up to the number of updates.
+     */
+    private void packBuckets(MessageBufferPacker packer, int[] indexes, int length, int before, double weight)
+            throws IOException {
+        int buckets = 0;
+        for (int i = 0; i < length; i++) {
+            if (i == 0 || indexes[i] != indexes[i - 1]) {
+                buckets++;
+            }
+        }
+        int start = 0;
+        if (buckets > maxBuckets) {
+            // counts below the lowest retained bucket are added to it
+            int collapsed = buckets - maxBuckets;
+            while (collapsed > 0) {
+                start++;
+                if (indexes[start] != indexes[start - 1]) {
+                    collapsed--;
+                }
+            }
+            buckets = maxBuckets;
+        }
+        packer.packArrayHeader(buckets * 2);
+        int previous = 0;
+        long packed = Math.round(before * weight);
+        for (int i = start; i < length; i++) {
+            if (i == length - 1 || indexes[i + 1] != indexes[i]) {
+                final long cumulative = Math.round((before + i + 1) * weight);
+                packer.packInt(indexes[i] - previous);
+                packer.packLong(cumulative - packed);
+                previous = indexes[i];
+                packed = cumulative;
+            }
+        }
+    }
+
+    /**
+     * The buffers of a thread encoding sketches, reused across metrics and reports.
+     */
+    private static final class Scratch {
+        private final MessageBufferPacker packer = MessagePack.newDefaultBufferPacker();
+        private int[] positive = new int[0];
+        private int[] negative = new int[0];
+
+        private int[] positive(int length) {
+            if (positive.length < length) {
+                positive = new int[length];
+            }
+            return positive;
+        }
+
+        private int[] negative(int length) {
+            if (negative.length < length) {
+                negative = new int[length];
+            }
+            return negative;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.krrrr38.metrics.fluency;
+
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.UniformSnapshot;
+
+/**
+ * Reads the values of a {@link Snapshot} as sorted, equally weighted values, for encodings which count values
+ * instead of looking up quantiles.
+ *
+ * The values of a {@link UniformSnapshot}, e.g. of {@link IntervalReservoir}, {@link StripedReservoir} or the
+ * sliding window reservoirs, are equally weighted and sorted, so they are read as they are. Other snapshots,
+ * e.g. the {@link com.codahale.metrics.WeightedSnapshot} of an exponentially decaying reservoir, may weight
+ * their values, so they are resampled with {@link Snapshot#getValue(double)} at evenly spaced ranks, which
+ * honours the weights like the percentile attributes do.
+ */
+final class SnapshotValues {
+    private SnapshotValues() {
+    }
+
+    /**
+     * Returns the values of the snapshot as sorted, equally weighted values.
+     *
+     * @param snapshot the snapshot
+     *
+     * @return the values in ascending order, one per value of the snapshot
+     */
+    static long[] of(Snapshot snapshot) {
+        if (snapshot instanceof UniformSnapshot) {
+            return snapshot.getValues();
+        }
+        final int size = snapshot.size();
+        final long[] values = new long[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = Math.round(snapshot.getValue((i + 0.5) / size));
+        }
+        return values;
+    }
+}
@@ -0,0 +1,525 @@
+package com.krrrr38.metrics.fluency;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.msgpack.core.MessageFormat;
+import org.msgpack.core.MessagePack;
+import org.msgpack.core.MessagePackException;
+import org.msgpack.core.MessagePacker;
+import org.msgpack.core.MessageUnpacker;
+import org.msgpack.core.buffer.MessageBuffer;
+import org.msgpack.core.buffer.MessageBufferInput;
+import org.msgpack.value.ArrayValue;
+import org.msgpack.value.Value;
+import org.msgpack.value.ValueType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricAttribute;
+
+/**
+ * A {@link RecordSink} which writes records to memory-mapped, append-only segment files while the downstream
+ * sink fails (e.g. Fluency's buffer is full because fluentd is unreachable), and replays them in order with
+ * their original timestamps once it recovers.
+ *
+ * Each segment is a sequence of MessagePack {@code [tag, timestamp, record]} arrays. The first byte of a record
+ * is written last, so a record torn by a crash reads as the zero-filled end of the segment.
+ * Records are replayed by decoding them from windows of the mapped segment into reused {@link MetricRecord}s.
+ * Fully replayed segments are deleted, and the oldest segment is dropped when the size cap is reached.
+ * Segments left by a previous process are replayed as well, so records are delivered at least once.
+ * Their records are counted when they are opened, so that the records of a corrupted or truncated segment,
+ * which is discarded from the first unreadable record on, are counted as dropped.
+ * It does not throw the failures of the downstream sink, only failures to spill, so a record which the
+ * downstream sink rejects is spilled rather than retried by the {@link EmitPolicy} in front of it, whose circuit
+ * breaker only opens while spilling fails.
+ */
+final class SpillBuffer implements RecordSink {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SpillBuffer.class);
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String SEGMENT_PREFIX = "spill-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final byte RECORD_HEADER = (byte) 0x93;
+    private static final long REPLAY_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    /**
+     * The keys of metric records as UTF-8, so that decoding them does not allocate strings.
+     */
+    private static final String[] KNOWN_KEYS;
+    private static final byte[][] KNOWN_KEY_BYTES;
+
+    static {
+        final MetricAttribute[] attributes = MetricAttribute.values();
+        KNOWN_KEYS = new String[attributes.length + 3];
+        KNOWN_KEY_BYTES = new byte[KNOWN_KEYS.length][];
+        for (MetricAttribute attribute : attributes) {
+            KNOWN_KEYS[attribute.ordinal()] = attribute.getCode();
+        }
+        KNOWN_KEYS[attributes.length] = FluencyReporter.DELTA_KEY;
+        KNOWN_KEYS[attributes.length + 1] = FluencyReporter.SKETCH_KEY;
+        KNOWN_KEYS[attributes.length + 2] = FluencyReporter.BUCKETS_KEY;
+        for (int i = 0; i < KNOWN_KEYS.length; i++) {
+            KNOWN_KEY_BYTES[i] = KNOWN_KEYS[i].getBytes(UTF_8);
+        }
+    }
+
+    private final RecordSink downstream;
+    private final File directory;
+    private final int segmentBytes;
+    private final int maxSegments;
+    private final Clock clock;
+    private final Meter spilled;
+    private final Meter replayed;
+    private final Meter dropped;
+    private final Meter failures;
+    private final Deque<Segment> segments = new ArrayDeque<Segment>();
+    private long nextSegment;
+    private long nextReplayTick;
+
+    private final ScratchOutput scratch = new ScratchOutput();
+    private final MessagePacker packer = MessagePack.newDefaultPacker(scratch);
+    private final SegmentInput input = new SegmentInput();
+    private final MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(new byte[0]);
+    private byte[] keyBytes = new byte[64];
+    private final MetricRecord replayRecord = new MetricRecord();
+    private final Map<String, Object> replayBatch = new HashMap<String, Object>();
+    private final List<MetricRecord> replayBatchRecords = new ArrayList<MetricRecord>();
+
+    SpillBuffer(
+            RecordSink downstream,
+            File directory,
+            int segmentBytes,
+            long maxBytes,
+            Clock clock,
+            Meter spilled,
+            Meter replayed,
+            Meter dropped,
+            Meter failures
+    ) throws IOException {
+        this.downstream = downstream;
+        this.directory = directory;
+        this.segmentBytes = (int) Math.min(segmentBytes, maxBytes);
+        this.maxSegments = (int) Math.min(Integer.MAX_VALUE, maxBytes / this.segmentBytes);
+        this.clock = clock;
+        this.spilled = spilled;
+        this.replayed = replayed;
+        this.dropped = dropped;
+        this.failures = failures;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create spill directory: " + directory);
+        }
+        loadSegments();
+    }
+
+    private void loadSegments() throws IOException {
+        final File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        if (files == null) {
+            throw new IOException("Unable to list spill directory: " + directory);
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            final Segment segment = Segment.open(file);
+            segment.pending = count(segment);
+            segments.add(segment);
+            nextSegment = Math.max(nextSegment, segment.sequence + 1);
+        }
+        if (!segments.isEmpty()) {
+            LOGGER.info("Replaying spilled records: directory={}, segments={}", directory, segments.size());
+        }
+    }
+
+    /**
+     * Counts the records of a segment left by a previous process, including a corrupted record which ends it.
+     */
+    private long count(Segment segment) throws IOException {
+        final int limit = segment.limit();
+        final ByteBuffer view = segment.buffer.duplicate();
+        view.limit(limit);
+        input.reset(view);
+        unpacker.reset(input);
+        long records = 0;
+        int position = 0;
+        try {
+            while (position < limit && segment.buffer.get(position) == RECORD_HEADER) {
+                final long start = unpacker.getTotalReadBytes();
+                unpacker.skipValue();
+                position += (int) (unpacker.getTotalReadBytes() - start);
+                records++;
+            }
+        } catch (MessagePackException e) {
+            records++;
+        }
+        return records;
+    }
+
+    @Override
+    public synchronized void emit(String tag, long timestamp, Map<String, Object> data) throws IOException {
+        if (!segments.isEmpty()) {
+            replayIfDue();
+        }
+        if (segments.isEmpty()) {
+            try {
+                downstream.emit(tag, timestamp, data);
+                return;
+            } catch (IOException e) {
+                failures.mark();
+                nextReplayTick = clock.getTick() + REPLAY_INTERVAL_NANOS;
+                LOGGER.warn("Unable to report to fluency, spilling records: directory={}, message={}",
+                            directory, e.getMessage(), e);
+            }
+        }
+        append(tag, timestamp, data);
+    }
+
+    private void append(String tag, long timestamp, Map<String, Object> data) throws IOException {
+        scratch.reset();
+        packer.packArrayHeader(3);
+        packer.packString(tag);
+        packer.packLong(timestamp);
+        MetricRecord.write(packer, data);
+        packer.flush();
+        final int length = scratch.size();
+        if (length > segmentBytes) {
+            throw new IOException("Record is larger than a spill segment: tag=" + tag + ", bytes=" + length);
+        }
+        Segment segment = segments.peekLast();
+        if (segment == null || segment.sealed || segment.writePosition + length > segmentBytes) {
+            segment = rotate();
+        }
+        final MappedByteBuffer buffer = segment.buffer;
+        buffer.position(segment.writePosition + 1);
+        buffer.put(scratch.bytes(), 1, length - 1);
+        buffer.put(segment.writePosition, scratch.bytes()[0]);
+        segment.writePosition += length;
+        segment.pending++;
+        spilled.mark();
+    }
+
+    private Segment rotate() throws IOException {
+        final Segment last = segments.peekLast();
+        if (last != null) {
+            last.seal();
+        }
+        while (segments.size() >= maxSegments) {
+            final Segment oldest = segments.removeFirst();
+            dropped.mark(oldest.pending);
+            oldest.delete();
+            LOGGER.warn("Dropped spilled records over the size cap: file={}, records={}",
+                        oldest.file, oldest.pending);
+        }
+        final File file = new File(directory, String.format("%s%016d%s", SEGMENT_PREFIX, nextSegment,
+                                                            SEGMENT_SUFFIX));
+        final Segment segment = Segment.create(file, nextSegment++, segmentBytes);
+        segments.addLast(segment);
+        return segment;
+    }
+
+    private void replayIfDue() throws IOException {
+        if (clock.getTick() - nextReplayTick < 0) {
+            return;
+        }
+        try {
+            while (!segments.isEmpty()) {
+                final Segment segment = segments.peekFirst();
+                replay(segment);
+                segments.removeFirst();
+                segment.delete();
+            }
+        } catch (IOException e) {
+            nextReplayTick = clock.getTick() + REPLAY_INTERVAL_NANOS;
+            LOGGER.debug("Unable to replay spilled records: message={}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Replays the remaining records of a segment, stopping at the first record the downstream sink fails on.
+     */
+    private void replay(Segment segment) throws IOException {
+        final int limit = segment.limit();
+        final ByteBuffer view = segment.buffer.duplicate();
+        view.limit(limit);
+        view.position(segment.readPosition);
+        input.reset(view);
+        unpacker.reset(input);
+        try {
+            while (segment.readPosition < limit && segment.buffer.get(segment.readPosition) == RECORD_HEADER) {
+                final long start = unpacker.getTotalReadBytes();
+                unpacker.unpackArrayHeader();
+                final String tag = unpacker.unpackString();
+                final long timestamp = unpacker.unpackLong();
+                final Map<String, Object> data = readRecord();
+                downstream.emit(tag, timestamp, data);
+                segment.readPosition += (int) (unpacker.getTotalReadBytes() - start);
+                segment.pending = Math.max(0, segment.pending - 1);
+                replayed.mark();
+            }
+        } catch (MessagePackException e) {
+            LOGGER.warn("Dropped a corrupted spill segment: file={}, records={}, message={}",
+                        segment.file, segment.pending, e.getMessage(), e);
+        }
+        dropped.mark(segment.pending);
+        segment.pending = 0;
+    }
+
+    /**
+     * Reads a record into the reused replay record, or a batch of records into the reused replay batch.
+     */
+    private Map<String, Object> readRecord() throws IOException {
+        replayRecord.clear();
+        replayBatch.clear();
+        final int size = unpacker.unpackMapHeader();
+        for (int i = 0; i < size; i++) {
+            final String key = readKey();
+            if (unpacker.getNextFormat().getValueType() == ValueType.MAP) {
+                if (replayBatchRecords.size() == replayBatch.size()) {
+                    replayBatchRecords.add(new MetricRecord());
+                }
+                final MetricRecord record = replayBatchRecords.get(replayBatch.size());
+                record.clear();
+                final int entries = unpacker.unpackMapHeader();
+                for (int j = 0; j < entries; j++) {
+                    readValue(record, readKey());
+                }
+                replayBatch.put(key, record);
+            } else {
+                readValue(replayRecord, key);
+            }
+        }
+        return replayBatch.isEmpty() ? replayRecord : replayBatch;
+    }
+
+    private void readValue(MetricRecord record, String key) throws IOException {
+        final MessageFormat format = unpacker.getNextFormat();
+        switch (format.getValueType()) {
+            case INTEGER:
+                record.put(key, unpacker.unpackLong());
+                break;
+            case FLOAT:
+                record.put(key, unpacker.unpackDouble());
+                break;
+            case BOOLEAN:
+                record.put(key, (Object) unpacker.unpackBoolean());
+                break;
+            case NIL:
+                unpacker.unpackNil();
+                record.put(key, (Object) null);
+                break;
+            case STRING:
+                record.put(key, (Object) unpacker.unpackString());
+                break;
+            case MAP:
+                record.put(key, (Object) readMap());
+                break;
+            case BINARY:
+                final byte[] bytes = new byte[unpacker.unpackBinaryHeader()];
+                unpacker.readPayload(bytes);
+                record.put(key, (Object) bytes);
+                break;
+            case ARRAY:
+                record.put(key, readArray());
+                break;
+            default:
+                record.put(key, (Object) unpacker.unpackValue().toString());
+        }
+    }
+
+    /**
+     * Reads an array of integers as a {@code long[]}, and any other array as its JSON string.
+     */
+    private Object readArray() throws IOException {
+        final ArrayValue array = unpacker.unpackValue().asArrayValue();
+        final long[] longs = new long[array.size()];
+        for (int i = 0; i < longs.length; i++) {
+            final Value element = array.get(i);
+            if (!element.isIntegerValue()) {
+                return array.toString();
+            }
+            longs[i] = element.asIntegerValue().toLong();
+        }
+        return longs;
+    }
+
+    private Map<String, Object> readMap() throws IOException {
+        final int size = unpacker.unpackMapHeader();
+        final MetricRecord map = new MetricRecord();
+        for (int i = 0; i < size; i++) {
+            readValue(map, readKey());
+        }
+        return map;
+    }
+
+    /**
+     * Reads a key, returning the shared instance of the attribute codes instead of decoding a new string.
+     */
+    private String readKey() throws IOException {
+        final int length = unpacker.unpackRawStringHeader();
+        if (keyBytes.length < length) {
+            keyBytes = new byte[Math.max(length, keyBytes.length * 2)];
+        }
+        unpacker.readPayload(keyBytes, 0, length);
+        for (int i = 0; i < KNOWN_KEY_BYTES.length; i++) {
+            if (matches(KNOWN_KEY_BYTES[i], length)) {
+                return KNOWN_KEYS[i];
+            }
+        }
+        return new String(keyBytes, 0, length, UTF_8);
+    }
+
+    private boolean matches(byte[] key, int length) {
+        if (key.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (key[i] != keyBytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Flushes the spilled records to the segment files, which are kept for the next process to replay.
+     */
+    synchronized void close() {
+        for (Segment segment : segments) {
+            segment.buffer.force();
+        }
+        if (!segments.isEmpty()) {
+            LOGGER.info("Kept spilled records for the next start: directory={}, segments={}",
+                        directory, segments.size());
+        }
+    }
+
+    /**
+     * Reads a mapped segment through two alternating heap windows, because msgpack-core cannot wrap a mapped
+     * buffer on every JVM. The previous window stays intact while the unpacker moves to the next one.
+     */
+    private static final class SegmentInput implements MessageBufferInput {
+        private static final int WINDOW_BYTES = 64 * 1024;
+        private final byte[][] windows = {new byte[WINDOW_BYTES], new byte[WINDOW_BYTES]};
+        private ByteBuffer view;
+        private int turn;
+
+        private void reset(ByteBuffer view) {
+            this.view = view;
+        }
+
+        @Override
+        public MessageBuffer next() {
+            final int length = Math.min(view.remaining(), WINDOW_BYTES);
+            if (length == 0) {
+                return null;
+            }
+            final byte[] window = windows[turn];
+            turn ^= 1;
+            view.get(window, 0, length);
+            return MessageBuffer.wrap(window, 0, length);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * A {@link ByteArrayOutputStream} whose buffer is read in place instead of being copied.
+     */
+    private static final class ScratchOutput extends ByteArrayOutputStream {
+        private ScratchOutput() {
+            super(4096);
+        }
+
+        private byte[] bytes() {
+            return buf;
+        }
+    }
+
+    private static final class Segment {
+        private final File file;
+        private final long sequence;
+        private final MappedByteBuffer buffer;
+        /**
+         * Whether no more records are appended, e.g. a segment left by a previous process.
+         */
+        private boolean sealed;
+        private int writePosition;
+        private int readPosition;
+        private long pending;
+
+        private Segment(File file, long sequence, MappedByteBuffer buffer, boolean sealed) {
+            this.file = file;
+            this.sequence = sequence;
+            this.buffer = buffer;
+            this.sealed = sealed;
+        }
+
+        private static Segment create(File file, long sequence, int size) throws IOException {
+            final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(size);
+                return new Segment(file, sequence, raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size),
+                                   false);
+            } finally {
+                raf.close();
+            }
+        }
+
+        private static Segment open(File file) throws IOException {
+            final String name = file.getName();
+            final long sequence;
+            try {
+                sequence = Long.parseLong(
+                        name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid spill segment name: " + file, e);
+            }
+            final RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                final MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+                final Segment segment = new Segment(file, sequence, buffer, true);
+                segment.writePosition = buffer.capacity();
+                return segment;
+            } finally {
+                raf.close();
+            }
+        }
+
+        private int limit() {
+            return writePosition;
+        }
+
+        private void seal() {
+            if (!sealed) {
+                sealed = true;
+                buffer.force();
+            }
+        }
+
+        private void delete() {
+            if (!file.delete() && file.exists()) {
+                LOGGER.warn("Unable to delete a spill segment: file={}", file);
+            }
+        }
+    }
+}
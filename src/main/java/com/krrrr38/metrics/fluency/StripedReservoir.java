@@ -0,0 +1,228 @@
+package com.krrrr38.metrics.fluency;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.UniformSnapshot;
+
+/**
+ * A {@link Reservoir} which counts values in log-linear buckets (as HdrHistogram does) striped by thread, so
+ * that recording is a single atomic increment without locks or contended writes, and the cost of merging
+ * moves to the thread taking the snapshot, e.g. the reporting thread of a {@link FluencyReporter}.
+ *
+ * Values are counted with 32 buckets per power of two, i.e. within about 3% of their value, negative values
+ * are counted as 0 and values above the maximum value as the maximum value. A snapshot takes the counts
+ * recorded since the previous snapshot, so that each report describes its interval, and contains up to
+ * {@code size} values at evenly spaced ranks of the merged buckets.
+ *
+ * Each stripe is an array of 8-byte counts, one per bucket, allocated on first use by a thread hashing to it.
+ * With the default maximum value of an hour in nanoseconds a stripe has 1205 buckets, about 9.3KB, so a
+ * reservoir takes about 9.3KB per stripe in use: up to about 74KB with the default of one stripe per
+ * available processor up to 8. A maximum value of {@link Long#MAX_VALUE} takes 1888 buckets, about 15KB per
+ * stripe, and the number of stripes is at most 64.
+ *
+ * Every snapshot resets the reservoir, so a metric using it must be read by a single reporter.
+ * <pre>{@code
+ * Timer timer = registry.timer("requests", StripedReservoir.timers());
+ * }</pre>
+ */
+public class StripedReservoir implements Reservoir {
+    private static final int DEFAULT_SIZE = 1028;
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final long DEFAULT_MAX_VALUE = TimeUnit.HOURS.toNanos(1);
+    private static final int DEFAULT_MAX_STRIPES = 8;
+    private static final int MAX_STRIPES = 64;
+
+    private final int size;
+    private final long maxValue;
+    private final int buckets;
+    private final int mask;
+    private final AtomicReferenceArray<AtomicLongArray> stripes;
+
+    /**
+     * Creates a reservoir with up to 1028 values per snapshot, a stripe per available processor up to 8, and a
+     * maximum value of an hour in nanoseconds.
+     */
+    public StripedReservoir() {
+        this(DEFAULT_SIZE, Math.min(DEFAULT_MAX_STRIPES, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Creates a reservoir with the given number of values per snapshot and stripes, and a maximum value of an
+     * hour in nanoseconds.
+     *
+     * @param size the maximum number of values of a snapshot
+     * @param stripes the number of stripes, rounded up to a power of two and at most 64
+     */
+    public StripedReservoir(int size, int stripes) {
+        this(size, stripes, DEFAULT_MAX_VALUE);
+    }
+
+    /**
+     * Creates a reservoir with the given number of values per snapshot and stripes, and the given maximum
+     * value, which bounds the number of buckets of a stripe.
+     *
+     * @param size the maximum number of values of a snapshot
+     * @param stripes the number of stripes, rounded up to a power of two and at most 64
+     * @param maxValue the maximum value, above which values are counted as the maximum value
+     */
+    public StripedReservoir(int size, int stripes, long maxValue) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("size must be positive: " + size);
+        }
+        if (stripes <= 0) {
+            throw new IllegalArgumentException("stripes must be positive: " + stripes);
+        }
+        if (maxValue <= 0) {
+            throw new IllegalArgumentException("maxValue must be positive: " + maxValue);
+        }
+        final int length = Integer.highestOneBit(Math.min(stripes, MAX_STRIPES) - 1) << 1;
+        this.size = size;
+        this.maxValue = maxValue;
+        this.buckets = index(maxValue) + 1;
+        this.mask = Math.max(1, length) - 1;
+        this.stripes = new AtomicReferenceArray<AtomicLongArray>(mask + 1);
+    }
+
+    /**
+     * Returns a supplier of timers recording into a new {@link StripedReservoir} each, for
+     * {@link MetricRegistry#timer(String, MetricRegistry.MetricSupplier)}.
+     *
+     * @return the supplier of timers
+     */
+    public static MetricRegistry.MetricSupplier<Timer> timers() {
+        return new MetricRegistry.MetricSupplier<Timer>() {
+            @Override
+            public Timer newMetric() {
+                return new Timer(new StripedReservoir());
+            }
+        };
+    }
+
+    /**
+     * Returns a supplier of histograms recording into a new {@link StripedReservoir} each, for
+     * {@link MetricRegistry#histogram(String, MetricRegistry.MetricSupplier)}.
+     *
+     * @return the supplier of histograms
+     */
+    public static MetricRegistry.MetricSupplier<Histogram> histograms() {
+        return new MetricRegistry.MetricSupplier<Histogram>() {
+            @Override
+            public Histogram newMetric() {
+                return new Histogram(new StripedReservoir());
+            }
+        };
+    }
+
+    /**
+     * Returns the number of stripes, after rounding.
+     *
+     * @return the number of stripes
+     */
+    int stripes() {
+        return mask + 1;
+    }
+
+    /**
+     * Returns the number of values recorded since the previous snapshot, which sums every stripe.
+     *
+     * @return the number of recorded values
+     */
+    @Override
+    public int size() {
+        long count = 0;
+        for (int s = 0; s <= mask; s++) {
+            final AtomicLongArray counts = stripes.get(s);
+            if (counts != null) {
+                for (int i = 0; i < buckets; i++) {
+                    count += counts.get(i);
+                }
+            }
+        }
+        return (int) Math.min(count, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public void update(long value) {
+        stripe().getAndIncrement(index(Math.min(value, maxValue)));
+    }
+
+    private AtomicLongArray stripe() {
+        final long id = Thread.currentThread().getId();
+        final int s = (int) ((id * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+        final AtomicLongArray counts = stripes.get(s);
+        if (counts != null) {
+            return counts;
+        }
+        stripes.compareAndSet(s, null, new AtomicLongArray(buckets));
+        return stripes.get(s);
+    }
+
+    /**
+     * Returns up to {@code size} values at evenly spaced ranks of the values recorded since the previous
+     * snapshot, and starts a new interval. Each count is taken by exactly one snapshot.
+     *
+     * @return the snapshot of the interval
+     */
+    @Override
+    public Snapshot getSnapshot() {
+        final long[] merged = new long[buckets];
+        long total = 0;
+        for (int s = 0; s <= mask; s++) {
+            final AtomicLongArray counts = stripes.get(s);
+            if (counts == null) {
+                continue;
+            }
+            for (int i = 0; i < buckets; i++) {
+                if (counts.get(i) != 0) {
+                    final long count = counts.getAndSet(i, 0);
+                    merged[i] += count;
+                    total += count;
+                }
+            }
+        }
+        final long[] values = new long[(int) Math.min(total, size)];
+        int bucket = 0;
+        long cumulative = merged[0];
+        for (int k = 0; k < values.length; k++) {
+            // the rank of the middle of the k-th of values.length equal parts of the recorded values
+            final long rank = (long) ((k + 0.5) * total / values.length);
+            while (cumulative <= rank) {
+                cumulative += merged[++bucket];
+            }
+            values[k] = value(bucket);
+        }
+        return new UniformSnapshot(values);
+    }
+
+    /**
+     * Returns the bucket of a value: values below 32 have their own buckets, and each power of two above is
+     * divided into 32 buckets.
+     */
+    static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return value < 0 ? 0 : (int) value;
+        }
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /**
+     * Returns the middle value of a bucket.
+     */
+    static long value(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int shift = index / SUB_BUCKETS - 1;
+        final long lower = (long) (index - shift * SUB_BUCKETS) << shift;
+        return lower + ((1L << shift) - 1) / 2;
+    }
+}
@@ -0,0 +1,102 @@
+package com.krrrr38.metrics.fluency;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricRegistryListener;
+import com.codahale.metrics.Timer;
+
+/**
+ * A cache of prefixed fluentd tags keyed by metric name.
+ *
+ * Tags are built when metrics are added to the registry and evicted when they are removed, so a
+ * stable registry does not build tag strings on every report.
+ */
+final class TagCache extends MetricRegistryListener.Base {
+    private final String prefix;
+    private final ConcurrentMap<String, String> tags = new ConcurrentHashMap<String, String>();
+
+    TagCache(String prefix) {
+        this.prefix = prefix;
+    }
+
+    /**
+     * Returns the tag of the given metric name.
+     * Names which are not registered (e.g. passed to {@code report} directly) are built but not cached.
+     *
+     * @param name the metric name
+     *
+     * @return the prefixed tag
+     */
+    String tag(String name) {
+        final String tag = tags.get(name);
+        return tag != null ? tag : build(name);
+    }
+
+    private String build(String name) {
+        return MetricRegistry.name(prefix, name);
+    }
+
+    private void add(String name) {
+        tags.put(name, build(name));
+    }
+
+    private void remove(String name) {
+        tags.remove(name);
+    }
+
+    @Override
+    public void onGaugeAdded(String name, Gauge<?> gauge) {
+        add(name);
+    }
+
+    @Override
+    public void onGaugeRemoved(String name) {
+        remove(name);
+    }
+
+    @Override
+    public void onCounterAdded(String name, Counter counter) {
+        add(name);
+    }
+
+    @Override
+    public void onCounterRemoved(String name) {
+        remove(name);
+    }
+
+    @Override
+    public void onHistogramAdded(String name, Histogram histogram) {
+        add(name);
+    }
+
+    @Override
+    public void onHistogramRemoved(String name) {
+        remove(name);
+    }
+
+    @Override
+    public void onMeterAdded(String name, Meter meter) {
+        add(name);
+    }
+
+    @Override
+    public void onMeterRemoved(String name) {
+        remove(name);
+    }
+
+    @Override
+    public void onTimerAdded(String name, Timer timer) {
+        add(name);
+    }
+
+    @Override
+    public void onTimerRemoved(String name) {
+        remove(name);
+    }
+}
@@ -0,0 +1,50 @@
+package com.krrrr38.metrics.fluency;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class AdaptiveScheduleTest {
+    private static final long PERIOD = TimeUnit.SECONDS.toNanos(1);
+
+    private final AdaptiveSchedule schedule = new AdaptiveSchedule(0.1, PERIOD * 4, true);
+    private long tick;
+
+    @Test
+    public void restoresAttributesOnlyAfterConsecutiveCheapReports() {
+        schedule.start(PERIOD);
+        report(PERIOD / 2);
+        report(PERIOD);
+        report(PERIOD * 2);
+        assertThat(schedule.intervalMillis()).isEqualTo(4000);
+        assertThat(schedule.degraded()).isTrue();
+
+        for (int i = 1; i < AdaptiveSchedule.CHEAP_CYCLES; i++) {
+            report(0);
+            assertThat(schedule.degraded()).isTrue();
+        }
+        report(0);
+        assertThat(schedule.degraded()).isFalse();
+        assertThat(schedule.intervalMillis()).isEqualTo(4000);
+    }
+
+    @Test
+    public void keepsDegradedWhileCheapReportsAlternateWithExpensiveOnes() {
+        schedule.start(PERIOD);
+        report(PERIOD / 2);
+        report(PERIOD);
+        report(PERIOD * 2);
+
+        for (int i = 0; i < AdaptiveSchedule.CHEAP_CYCLES * 2; i++) {
+            report(i % 2 == 0 ? 0 : PERIOD * 2);
+            assertThat(schedule.degraded()).isTrue();
+        }
+    }
+
+    private void report(long elapsedNanos) {
+        schedule.completed(tick, elapsedNanos);
+        tick += schedule.intervalMillis() * 1000000;
+    }
+}
@@ -0,0 +1,151 @@
+package com.krrrr38.metrics.fluency;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.komamitsu.fluency.Fluency;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricAttribute;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+/**
+ * Measures the bytes allocated by the reporting thread per metric with {@code ThreadMXBean}.
+ */
+public class AllocationTest {
+    private static final int SIZE = 1000;
+
+    private com.sun.management.ThreadMXBean threadMXBean;
+    private FluencyReporter reporter;
+    private Fluency fluency;
+    private long consumed;
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadMXBean.isThreadAllocatedMemorySupported());
+        threadMXBean.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (reporter != null) {
+            reporter.stop();
+        }
+        if (fluency != null) {
+            fluency.close();
+        }
+    }
+
+    @Test
+    @SuppressWarnings("rawtypes")
+    public void reportAllocatesNearZeroBytesPerMetricBesidesFluency() {
+        final MetricRegistry registry = new MetricRegistry();
+        for (int i = 0; i < SIZE; i++) {
+            registry.counter("counter" + i).inc(i);
+        }
+        reporter = FluencyReporter.forRegistry(registry).batchSize(SIZE).build(DiscardingSender.fluency());
+        final SortedMap<String, Gauge> gauges = new TreeMap<String, Gauge>();
+        final SortedMap<String, Counter> counters = registry.getCounters();
+        final SortedMap<String, Histogram> histograms = new TreeMap<String, Histogram>();
+        final SortedMap<String, Meter> meters = new TreeMap<String, Meter>();
+        final SortedMap<String, Timer> timers = new TreeMap<String, Timer>();
+        final long reportBytes = allocatedBytesPerMetric(new Runnable() {
+            @Override
+            public void run() {
+                reporter.report(gauges, counters, histograms, meters, timers);
+            }
+        });
+
+        // the same batch emitted directly, i.e. what Fluency allocates to serialize it
+        fluency = DiscardingSender.fluency();
+        final RecordBatch batch = new RecordBatch(SIZE);
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            final MetricRecord record = batch.nextRecord();
+            record.put(MetricAttribute.COUNT, entry.getValue().getCount());
+            batch.add(entry.getKey(), record);
+        }
+        final long fluencyBytes = allocatedBytesPerMetric(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    fluency.emit("metrics", System.currentTimeMillis() / 1000, batch);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+
+        assertThat(reportBytes - fluencyBytes).isLessThan(32);
+    }
+
+    @Test
+    public void metricRecordAllocatesLessThanHashMap() {
+        final MetricRecord record = new MetricRecord();
+        final long recordBytes = allocatedBytesPerMetric(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < SIZE; i++) {
+                    record.clear();
+                    for (MetricAttribute attribute : MetricAttribute.values()) {
+                        record.put(attribute, 1000.5 + i);
+                    }
+                    consume(record);
+                }
+            }
+        });
+        final long hashMapBytes = allocatedBytesPerMetric(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < SIZE; i++) {
+                    final Map<String, Object> map = new HashMap<String, Object>();
+                    for (MetricAttribute attribute : MetricAttribute.values()) {
+                        map.put(attribute.getCode(), 1000.5 + i);
+                    }
+                    consume(map);
+                }
+            }
+        });
+
+        // the record still boxes each value while it is read, as Fluency's serializer does
+        assertThat(recordBytes).isLessThan(hashMapBytes / 4);
+    }
+
+    /**
+     * Reads every entry as Fluency's serializer does.
+     */
+    private void consume(Map<String, Object> map) {
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            consumed += entry.getKey().length() + entry.getValue().hashCode();
+        }
+    }
+
+    private long allocatedBytesPerMetric(Runnable task) {
+        for (int i = 0; i < 200; i++) {
+            task.run();
+        }
+        final long threadId = Thread.currentThread().getId();
+        final int runs = 20;
+        final long before = threadMXBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < runs; i++) {
+            task.run();
+        }
+        return (threadMXBean.getThreadAllocatedBytes(threadId) - before) / runs / SIZE;
+    }
+}
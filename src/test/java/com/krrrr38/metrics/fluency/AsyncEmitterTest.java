@@ -0,0 +1,156 @@
+package com.krrrr38.metrics.fluency;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.codahale.metrics.Meter;
+
+public class AsyncEmitterTest {
+    private static final int CAPACITY = 2;
+
+    private final BlockingSink sink = new BlockingSink();
+    private final Meter dropped = new Meter();
+    private final List<Map<String, Object>> droppedRecords = new CopyOnWriteArrayList<Map<String, Object>>();
+
+    @Test
+    public void dropsOldestQueuedRecordWhenFull() throws InterruptedException {
+        final AsyncEmitter emitter = fill(emitter(OverflowPolicy.DROP_OLDEST, 0));
+
+        emitter.emit("r3", 0, record("r3"));
+        sink.release.countDown();
+        emitter.close(TimeUnit.SECONDS.toMillis(10));
+
+        assertThat(sink.tags).containsExactly("r0", "r2", "r3");
+        assertThat(dropped.getCount()).isEqualTo(1);
+        assertThat(droppedRecords).containsExactly(record("r1"));
+    }
+
+    @Test
+    public void dropsNewRecordWhenFull() throws InterruptedException {
+        final AsyncEmitter emitter = fill(emitter(OverflowPolicy.DROP_NEWEST, 0));
+
+        emitter.emit("r3", 0, record("r3"));
+        sink.release.countDown();
+        emitter.close(TimeUnit.SECONDS.toMillis(10));
+
+        assertThat(sink.tags).containsExactly("r0", "r1", "r2");
+        assertThat(droppedRecords).containsExactly(record("r3"));
+    }
+
+    @Test
+    public void blocksUntilRoomIsMade() throws InterruptedException {
+        final AsyncEmitter emitter = fill(emitter(OverflowPolicy.BLOCK, TimeUnit.SECONDS.toNanos(10)));
+        final Thread blocked = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                emitter.emit("r3", 0, record("r3"));
+            }
+        });
+        blocked.start();
+        awaitState(blocked, Thread.State.TIMED_WAITING);
+        assertThat(sink.tags).isEmpty();
+
+        sink.release.countDown();
+        blocked.join(TimeUnit.SECONDS.toMillis(10));
+        emitter.close(TimeUnit.SECONDS.toMillis(10));
+
+        assertThat(sink.tags).containsExactly("r0", "r1", "r2", "r3");
+        assertThat(dropped.getCount()).isZero();
+    }
+
+    @Test
+    public void dropsNewRecordWhenBlockingTimesOut() throws InterruptedException {
+        final AsyncEmitter emitter = fill(emitter(OverflowPolicy.BLOCK, TimeUnit.MILLISECONDS.toNanos(10)));
+
+        emitter.emit("r3", 0, record("r3"));
+        sink.release.countDown();
+        emitter.close(TimeUnit.SECONDS.toMillis(10));
+
+        assertThat(sink.tags).containsExactly("r0", "r1", "r2");
+        assertThat(droppedRecords).containsExactly(record("r3"));
+    }
+
+    @Test
+    public void sendsQueuedRecordsOnClose() throws InterruptedException {
+        final AsyncEmitter emitter = fill(emitter(OverflowPolicy.DROP_NEWEST, 0));
+
+        sink.release.countDown();
+        emitter.close(TimeUnit.SECONDS.toMillis(10));
+
+        assertThat(sink.tags).containsExactly("r0", "r1", "r2");
+        assertThat(emitter.size()).isZero();
+        assertThat(dropped.getCount()).isZero();
+    }
+
+    @Test
+    public void closesWithoutStarting() {
+        final AsyncEmitter emitter = emitter(OverflowPolicy.DROP_NEWEST, 0);
+
+        emitter.close(TimeUnit.SECONDS.toMillis(10));
+
+        assertThat(sink.tags).isEmpty();
+    }
+
+    private AsyncEmitter emitter(OverflowPolicy overflowPolicy, long blockTimeoutNanos) {
+        final EmitPolicy emitPolicy = new EmitPolicy(sink, 0, 0, new CircuitBreaker(0), new Meter(), "test");
+        return new AsyncEmitter(emitPolicy, CAPACITY, overflowPolicy, blockTimeoutNanos, dropped, new Meter(),
+                                new DropListener() {
+                                    @Override
+                                    public void dropped(Map<String, Object> data) {
+                                        droppedRecords.add(data);
+                                    }
+                                });
+    }
+
+    /**
+     * Emits a record which the drainer holds in the blocked sink, then fills the queue up to its capacity.
+     */
+    private AsyncEmitter fill(AsyncEmitter emitter) throws InterruptedException {
+        emitter.start();
+        emitter.emit("r0", 0, record("r0"));
+        assertThat(sink.sending.await(10, TimeUnit.SECONDS)).isTrue();
+        for (int i = 1; i <= CAPACITY; i++) {
+            emitter.emit("r" + i, 0, record("r" + i));
+        }
+        assertThat(emitter.size()).isEqualTo(CAPACITY);
+        return emitter;
+    }
+
+    private static void awaitState(Thread thread, Thread.State state) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (thread.getState() != state && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertThat(thread.getState()).isEqualTo(state);
+    }
+
+    private static Map<String, Object> record(String name) {
+        return Collections.<String, Object>singletonMap("name", name);
+    }
+
+    private static final class BlockingSink implements RecordSink {
+        private final List<String> tags = new CopyOnWriteArrayList<String>();
+        private final CountDownLatch sending = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public void emit(String tag, long timestamp, Map<String, Object> data) throws IOException {
+            sending.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            tags.add(tag);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.krrrr38.metrics.fluency;
+
+import static com.codahale.metrics.MetricAttribute.COUNT;
+import static com.codahale.metrics.MetricAttribute.M15_RATE;
+import static com.codahale.metrics.MetricAttribute.M1_RATE;
+import static com.codahale.metrics.MetricAttribute.M5_RATE;
+import static com.codahale.metrics.MetricAttribute.MAX;
+import static com.codahale.metrics.MetricAttribute.MEAN;
+import static com.codahale.metrics.MetricAttribute.MEAN_RATE;
+import static com.codahale.metrics.MetricAttribute.MIN;
+import static com.codahale.metrics.MetricAttribute.P50;
+import static com.codahale.metrics.MetricAttribute.P75;
+import static com.codahale.metrics.MetricAttribute.P95;
+import static com.codahale.metrics.MetricAttribute.P98;
+import static com.codahale.metrics.MetricAttribute.P99;
+import static com.codahale.metrics.MetricAttribute.P999;
+import static com.codahale.metrics.MetricAttribute.STDDEV;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.codahale.metrics.MetricAttribute;
+
+public class AttributePlanTest {
+    private static final Set<MetricAttribute> SNAPSHOT_ATTRIBUTES =
+            EnumSet.of(MAX, MEAN, MIN, STDDEV, P50, P75, P95, P98, P99, P999);
+
+    @Test
+    public void reportsEveryAttributeByDefault() {
+        final AttributePlan plan = new AttributePlan(EnumSet.noneOf(MetricAttribute.class));
+
+        assertThat(plan.counterEnabled).isTrue();
+        assertThat(plan.timerAttributes).hasSize(15);
+        assertThat(plan.meteredAttributes).containsExactly(COUNT, M1_RATE, M5_RATE, M15_RATE, MEAN_RATE);
+        assertThat(plan.histogramAttributes).hasSize(11);
+        assertThat(plan.timerSnapshotEnabled).isTrue();
+        assertThat(plan.histogramSnapshotEnabled).isTrue();
+    }
+
+    @Test
+    public void leavesOutDisabledAttributes() {
+        final AttributePlan plan = new AttributePlan(EnumSet.of(COUNT, P999, M15_RATE));
+
+        assertThat(plan.counterEnabled).isFalse();
+        assertThat(plan.timerAttributes).doesNotContain(COUNT, P999, M15_RATE).hasSize(12);
+        assertThat(plan.meteredAttributes).containsExactly(M1_RATE, M5_RATE, MEAN_RATE);
+        assertThat(plan.histogramAttributes).containsExactly(MAX, MEAN, MIN, STDDEV, P50, P75, P95, P98, P99);
+    }
+
+    @Test
+    public void requiresSnapshotWhileAnySnapshotAttributeIsEnabled() {
+        for (MetricAttribute enabled : SNAPSHOT_ATTRIBUTES) {
+            final Set<MetricAttribute> disabled = EnumSet.copyOf(SNAPSHOT_ATTRIBUTES);
+            disabled.remove(enabled);
+
+            final AttributePlan plan = new AttributePlan(disabled);
+
+            assertThat(plan.timerSnapshotEnabled).as(enabled.getCode()).isTrue();
+            assertThat(plan.histogramSnapshotEnabled).as(enabled.getCode()).isTrue();
+        }
+    }
+
+    @Test
+    public void requiresNoSnapshotForCountsAndRates() {
+        final AttributePlan plan = new AttributePlan(SNAPSHOT_ATTRIBUTES);
+
+        assertThat(plan.timerAttributes).containsExactly(COUNT, M1_RATE, M5_RATE, M15_RATE, MEAN_RATE);
+        assertThat(plan.timerSnapshotEnabled).isFalse();
+        assertThat(plan.histogramSnapshotEnabled).isFalse();
+    }
+}
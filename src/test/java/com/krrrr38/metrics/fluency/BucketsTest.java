@@ -0,0 +1,30 @@
+package com.krrrr38.metrics.fluency;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.codahale.metrics.UniformSnapshot;
+import com.codahale.metrics.WeightedSnapshot;
+import com.codahale.metrics.WeightedSnapshot.WeightedSample;
+
+public class BucketsTest {
+    private final Buckets buckets = new Buckets(new double[] { 100, 10 });
+
+    @Test
+    public void countsValuesAtOrBelowEachBoundary() {
+        final UniformSnapshot snapshot = new UniformSnapshot(new long[] { 1000, 5, 10, 50 });
+
+        assertThat(buckets.count(snapshot, 1)).containsExactly(2, 3, 4);
+    }
+
+    @Test
+    public void countsValuesOfWeightedSnapshotsByWeight() {
+        final WeightedSnapshot snapshot = new WeightedSnapshot(Arrays.asList(new WeightedSample(10, 9),
+                                                                             new WeightedSample(1000, 1)));
+
+        assertThat(buckets.count(snapshot, 1)).containsExactly(2, 2, 2);
+    }
+}
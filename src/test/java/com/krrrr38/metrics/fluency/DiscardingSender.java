@@ -0,0 +1,45 @@
+package com.krrrr38.metrics.fluency;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.komamitsu.fluency.Fluency;
+import org.komamitsu.fluency.buffer.PackedForwardBuffer;
+import org.komamitsu.fluency.flusher.SyncFlusher;
+import org.komamitsu.fluency.sender.Sender;
+
+/**
+ * A {@link Sender} which discards the sent chunks, so tests do not need a fluentd.
+ */
+class DiscardingSender extends Sender {
+    DiscardingSender() {
+        super(new Sender.Config());
+    }
+
+    /**
+     * Returns a {@link Fluency} which flushes synchronously into a new discarding sender.
+     */
+    static Fluency fluency() {
+        return new Fluency.Builder(new DiscardingSender())
+                .setBufferConfig(new PackedForwardBuffer.Config().setMaxBufferSize(64 * 1024 * 1024L))
+                .setFlusherConfig(new SyncFlusher.Config().setBufferOccupancyThreshold(0.1f))
+                .build();
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return true;
+    }
+
+    @Override
+    protected void sendInternal(List<ByteBuffer> buffers, byte[] ackToken) throws IOException {
+        for (ByteBuffer buffer : buffers) {
+            buffer.position(buffer.limit());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+    }
+}
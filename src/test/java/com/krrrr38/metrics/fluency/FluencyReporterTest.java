@@ -0,0 +1,414 @@
+package com.krrrr38.metrics.fluency;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.komamitsu.fluency.EventTime;
+import org.komamitsu.fluency.Fluency;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricAttribute;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.UniformReservoir;
+
+public class FluencyReporterTest {
+    private final MetricRegistry registry = new MetricRegistry();
+    private final List<Map<String, Object>> emitted = new ArrayList<Map<String, Object>>();
+    private Fluency fluency;
+    private volatile boolean failing;
+    private FluencyReporter reporter;
+
+    @Before
+    public void setUp() throws IOException {
+        fluency = mock(Fluency.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Void answer(InvocationOnMock invocation) throws IOException {
+                if (failing) {
+                    throw new IOException("rejected");
+                }
+                emitted.add(new HashMap<String, Object>((Map<String, Object>) invocation.getArguments()[2]));
+                return null;
+            }
+        }).when(fluency).emit(anyString(), anyLong(), anyMapOf(String.class, Object.class));
+    }
+
+    @After
+    public void tearDown() {
+        if (reporter != null) {
+            reporter.stop();
+        }
+    }
+
+    @Test
+    public void carriesDeltasOfDroppedRecordsForward() {
+        final Counter counter = registry.counter("requests");
+        reporter = FluencyReporter.forRegistry(registry).reportCountDeltas(true).build(fluency);
+
+        counter.inc(3);
+        reporter.report();
+        counter.inc(4);
+        failing = true;
+        reporter.report();
+        failing = false;
+        counter.inc(5);
+        reporter.report();
+
+        assertThat(emitted).hasSize(2);
+        assertThat(emitted.get(0).get("delta")).isEqualTo(3L);
+        assertThat(emitted.get(1).get("delta")).isEqualTo(9L);
+    }
+
+    @Test
+    public void resendsUnchangedRecordsAfterDrop() {
+        registry.counter("requests").inc(3);
+        reporter = FluencyReporter.forRegistry(registry).suppressUnchanged(10).build(fluency);
+
+        failing = true;
+        reporter.report();
+        failing = false;
+        reporter.report();
+        reporter.report();
+
+        assertThat(emitted).hasSize(1);
+        assertThat(emitted.get(0).get("count")).isEqualTo(3L);
+    }
+
+    @Test
+    public void sendsEqualNonZeroDeltasOfUnchangedRecords() {
+        final Counter counter = registry.counter("requests");
+        reporter = FluencyReporter.forRegistry(registry)
+                                  .reportCountDeltas(true)
+                                  .disabledMetricAttributes(EnumSet.of(MetricAttribute.COUNT))
+                                  .suppressUnchanged(10)
+                                  .build(fluency);
+
+        for (int i = 0; i < 4; i++) {
+            counter.inc(5);
+            reporter.report();
+        }
+        reporter.report();
+        reporter.report();
+
+        assertThat(emitted).hasSize(5);
+        long total = 0;
+        for (Map<String, Object> record : emitted) {
+            total += (Long) record.get("delta");
+        }
+        assertThat(total).isEqualTo(20);
+        assertThat(emitted.get(4).get("delta")).isEqualTo(0L);
+    }
+
+    @Test
+    public void appliesCircuitBreakerAndCountsDropsOnEmittingThread() throws IOException {
+        for (int i = 0; i < 5; i++) {
+            registry.counter("requests" + i).inc();
+        }
+        final MetricRegistry instrumentation = new MetricRegistry();
+        reporter = FluencyReporter.forRegistry(registry)
+                                  .emitAsynchronously(100)
+                                  .circuitBreakerThreshold(2)
+                                  .instrumentedWith(instrumentation)
+                                  .build(fluency);
+        final Meter dropped = meter(instrumentation, "dropped");
+
+        failing = true;
+        reporter.report();
+        reporter.stop();
+        reporter = null;
+
+        verify(fluency, times(2)).emit(anyString(), anyLong(), anyMapOf(String.class, Object.class));
+        assertThat(dropped.getCount()).isEqualTo(5);
+    }
+
+    @Test
+    public void dropsMetricsWhichThrowAndReportsTheRest() {
+        registry.register("broken", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                throw new IllegalStateException("broken");
+            }
+        });
+        registry.counter("requests").inc(3);
+        registry.timer("latency").update(1, TimeUnit.MILLISECONDS);
+        final MetricRegistry instrumentation = new MetricRegistry();
+        reporter = FluencyReporter.forRegistry(registry).instrumentedWith(instrumentation).build(fluency);
+
+        reporter.report();
+
+        assertThat(emitted).hasSize(2);
+        assertThat(emitted.get(0).get("count")).isEqualTo(3L);
+        assertThat(emitted.get(1).get("count")).isEqualTo(1L);
+        assertThat(meter(instrumentation, "dropped.gauges").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void waitsForSlowGaugesOnceACycle() {
+        final ManualClock clock = new ManualClock();
+        for (int i = 0; i < 5; i++) {
+            registry.register("slow" + i, new Gauge<Long>() {
+                @Override
+                public Long getValue() {
+                    clock.tick += TimeUnit.SECONDS.toNanos(1);
+                    return 1L;
+                }
+            });
+        }
+        reporter = FluencyReporter.forRegistry(registry)
+                                  .withClock(clock)
+                                  .evaluateGaugesOn(new ManualExecutor(clock), 100, TimeUnit.MILLISECONDS)
+                                  .build(fluency);
+
+        reporter.report();
+
+        assertThat(clock.tick).isEqualTo(TimeUnit.MILLISECONDS.toNanos(100));
+    }
+
+    @Test
+    public void registersMetricsOfReportersSharingRegistrySeparately() {
+        final MetricRegistry instrumentation = new MetricRegistry();
+        final FluencyReporter first = FluencyReporter.forRegistry(registry)
+                                                     .instrumentedWith(instrumentation)
+                                                     .build(fluency);
+        final FluencyReporter audit = FluencyReporter.forRegistry(registry)
+                                                     .instrumentedWith(instrumentation, "audit")
+                                                     .build(fluency);
+        reporter = FluencyReporter.forRegistry(registry).instrumentedWith(instrumentation).build(fluency);
+
+        assertThat(instrumentation.getNames()).contains("com.krrrr38.metrics.fluency.FluencyReporter.cycle",
+                                                        "com.krrrr38.metrics.fluency.FluencyReporter.audit.cycle",
+                                                        "com.krrrr38.metrics.fluency.FluencyReporter.2.cycle");
+        first.stop();
+        audit.stop();
+        assertThat(instrumentation.getNames()).containsOnly(
+                "com.krrrr38.metrics.fluency.FluencyReporter.2.cycle",
+                "com.krrrr38.metrics.fluency.FluencyReporter.2.collect.gauges",
+                "com.krrrr38.metrics.fluency.FluencyReporter.2.collect.counters",
+                "com.krrrr38.metrics.fluency.FluencyReporter.2.collect.histograms",
+                "com.krrrr38.metrics.fluency.FluencyReporter.2.collect.meters",
+                "com.krrrr38.metrics.fluency.FluencyReporter.2.collect.timers",
+                "com.krrrr38.metrics.fluency.FluencyReporter.2.records",
+                "com.krrrr38.metrics.fluency.FluencyReporter.2.bytes",
+                "com.krrrr38.metrics.fluency.FluencyReporter.2.failures",
+                "com.krrrr38.metrics.fluency.FluencyReporter.2.skipped",
+                "com.krrrr38.metrics.fluency.FluencyReporter.2.dropped",
+                "com.krrrr38.metrics.fluency.FluencyReporter.2.spilled",
+                "com.krrrr38.metrics.fluency.FluencyReporter.2.replayed",
+                "com.krrrr38.metrics.fluency.FluencyReporter.2.gauge.timeouts",
+                "com.krrrr38.metrics.fluency.FluencyReporter.2.dropped.gauges",
+                "com.krrrr38.metrics.fluency.FluencyReporter.2.dropped.counters",
+                "com.krrrr38.metrics.fluency.FluencyReporter.2.dropped.histograms",
+                "com.krrrr38.metrics.fluency.FluencyReporter.2.dropped.meters",
+                "com.krrrr38.metrics.fluency.FluencyReporter.2.dropped.timers");
+    }
+
+    @Test
+    public void scalesSketchesToUpdatesSinceThePreviousReport() throws IOException {
+        final Histogram histogram = registry.register("sizes", new Histogram(new IntervalReservoir(4)));
+        reporter = FluencyReporter.forRegistry(registry).reportSketches(0.01, 2048).build(fluency);
+
+        for (int i = 0; i < 10; i++) {
+            histogram.update(i);
+        }
+        reporter.report();
+        for (int i = 0; i < 5; i++) {
+            histogram.update(i);
+        }
+        reporter.report();
+
+        assertThat(SketchEncoderTest.total((byte[]) emitted.get(0).get("sketch"))).isEqualTo(10);
+        assertThat(SketchEncoderTest.total((byte[]) emitted.get(1).get("sketch"))).isEqualTo(5);
+    }
+
+    @Test
+    public void startsReportingAtNextMultipleOfPeriodWhenAligned() {
+        final ManualClock clock = new ManualClock();
+        clock.millis = 1234567;
+        final ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+        reporter = FluencyReporter.forRegistry(registry)
+                                  .withClock(clock)
+                                  .scheduleOn(executor)
+                                  .shutdownExecutorOnStop(false)
+                                  .alignTimestamps(true)
+                                  .build(fluency);
+
+        reporter.start(10, TimeUnit.SECONDS);
+
+        verify(executor).scheduleAtFixedRate(any(Runnable.class), eq(5433L), eq(10000L),
+                                             eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void sendsTimestampsInSecondsUnlessUsingEventTime() throws IOException {
+        final ManualClock clock = new ManualClock();
+        clock.millis = 1240003;
+        registry.counter("requests");
+        reporter = FluencyReporter.forRegistry(registry).withClock(clock).build(fluency);
+
+        reporter.report();
+
+        verify(fluency).emit(anyString(), eq(1240L), anyMapOf(String.class, Object.class));
+        verify(fluency, never()).emit(anyString(), any(EventTime.class), anyMapOf(String.class, Object.class));
+    }
+
+    @Test
+    public void sendsEventTimesWithMilliseconds() throws IOException {
+        final ManualClock clock = new ManualClock();
+        clock.millis = 1240003;
+        registry.counter("requests");
+        registry.counter("responses");
+        reporter = FluencyReporter.forRegistry(registry).withClock(clock).useEventTime(true).build(fluency);
+
+        reporter.report();
+
+        final ArgumentCaptor<EventTime> eventTimes = ArgumentCaptor.forClass(EventTime.class);
+        verify(fluency, times(2)).emit(anyString(), eventTimes.capture(), anyMapOf(String.class, Object.class));
+        verify(fluency, never()).emit(anyString(), anyLong(), anyMapOf(String.class, Object.class));
+        for (EventTime eventTime : eventTimes.getAllValues()) {
+            assertThat(eventTime.getSeconds()).isEqualTo(1240);
+            assertThat(eventTime.getNanoSeconds()).isEqualTo(3000000);
+        }
+    }
+
+    @Test
+    public void takesSnapshotsOnlyWhenSomethingReadsThem() {
+        final Set<MetricAttribute> snapshotAttributes = EnumSet.of(
+                MetricAttribute.MAX, MetricAttribute.MEAN, MetricAttribute.MIN, MetricAttribute.STDDEV,
+                MetricAttribute.P50, MetricAttribute.P75, MetricAttribute.P95, MetricAttribute.P98,
+                MetricAttribute.P99, MetricAttribute.P999);
+        final CountingReservoir timerReservoir = new CountingReservoir();
+        final CountingReservoir histogramReservoir = new CountingReservoir();
+        registry.register("latency", new Timer(timerReservoir));
+        registry.register("sizes", new Histogram(histogramReservoir));
+
+        report(FluencyReporter.forRegistry(registry).disabledMetricAttributes(snapshotAttributes));
+        assertThat(timerReservoir.snapshots).isZero();
+        assertThat(histogramReservoir.snapshots).isZero();
+
+        final Set<MetricAttribute> allButMax = EnumSet.copyOf(snapshotAttributes);
+        allButMax.remove(MetricAttribute.MAX);
+        report(FluencyReporter.forRegistry(registry).disabledMetricAttributes(allButMax));
+        report(FluencyReporter.forRegistry(registry).disabledMetricAttributes(snapshotAttributes).percentiles(0.5));
+        report(FluencyReporter.forRegistry(registry).disabledMetricAttributes(snapshotAttributes).buckets(1, 10));
+        report(FluencyReporter.forRegistry(registry).disabledMetricAttributes(snapshotAttributes)
+                              .reportSketches(0.01, 2048));
+        assertThat(timerReservoir.snapshots).isEqualTo(4);
+        assertThat(histogramReservoir.snapshots).isEqualTo(4);
+    }
+
+    @Test
+    public void collectsTheSameRecordsConcurrentlyAsSerially() throws IOException {
+        final ManualClock clock = new ManualClock();
+        clock.millis = 1240000;
+        for (int i = 0; i < 50; i++) {
+            registry.counter("counter" + i).inc(i);
+            registry.register("meter" + i, new Meter(clock)).mark(i);
+            final Timer timer = registry.register("timer" + i, new Timer(new UniformReservoir(), clock));
+            final Histogram histogram = registry.histogram("histogram" + i);
+            for (int j = 0; j <= i; j++) {
+                timer.update(j, TimeUnit.MILLISECONDS);
+                histogram.update(j);
+            }
+        }
+        clock.tick = TimeUnit.SECONDS.toNanos(10);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final Map<String, Map<String, Object>> serial = reported(
+                    FluencyReporter.forRegistry(registry).withClock(clock).reportCountDeltas(true).percentiles(0.9));
+            final Map<String, Map<String, Object>> concurrent = reported(
+                    FluencyReporter.forRegistry(registry).withClock(clock).reportCountDeltas(true).percentiles(0.9)
+                                   .collectOn(executor).collectionChunkSize(7));
+
+            assertThat(serial).hasSize(200);
+            assertThat(concurrent).isEqualTo(serial);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Reports once and returns the records keyed by tag.
+     */
+    private static Map<String, Map<String, Object>> reported(FluencyReporter.Builder builder) throws IOException {
+        final Map<String, Map<String, Object>> records = new ConcurrentHashMap<String, Map<String, Object>>();
+        final Fluency fluency = mock(Fluency.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Void answer(InvocationOnMock invocation) {
+                records.put((String) invocation.getArguments()[0],
+                            new HashMap<String, Object>((Map<String, Object>) invocation.getArguments()[2]));
+                return null;
+            }
+        }).when(fluency).emit(anyString(), anyLong(), anyMapOf(String.class, Object.class));
+        final FluencyReporter reporter = builder.build(fluency);
+        try {
+            reporter.report();
+        } finally {
+            reporter.stop();
+        }
+        return records;
+    }
+
+    private void report(FluencyReporter.Builder builder) {
+        final FluencyReporter reporter = builder.build(fluency);
+        try {
+            reporter.report();
+        } finally {
+            reporter.stop();
+        }
+    }
+
+    private static Meter meter(MetricRegistry instrumentation, String name) {
+        for (Map.Entry<String, Meter> entry : instrumentation.getMeters().entrySet()) {
+            if (entry.getKey().endsWith('.' + name)) {
+                return entry.getValue();
+            }
+        }
+        throw new AssertionError("No meter: " + name);
+    }
+
+    private static final class CountingReservoir extends UniformReservoir {
+        private int snapshots;
+
+        @Override
+        public Snapshot getSnapshot() {
+            snapshots++;
+            return super.getSnapshot();
+        }
+    }
+}
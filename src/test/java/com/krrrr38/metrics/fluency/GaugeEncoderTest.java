@@ -0,0 +1,102 @@
+package com.krrrr38.metrics.fluency;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class GaugeEncoderTest {
+    private final MetricRecord record = new MetricRecord();
+
+    @Test
+    public void keepsScalarsAsCountWhateverThePolicy() {
+        for (NonScalarGaugePolicy policy : NonScalarGaugePolicy.values()) {
+            final GaugeEncoder encoder = new GaugeEncoder(policy);
+            assertThat(encode(encoder, new AtomicLong(3))).containsExactly(entry("count", 3L));
+            assertThat(encode(encoder, 1.5f)).containsExactly(entry("count", 1.5));
+            assertThat(encode(encoder, BigInteger.ONE.shiftLeft(64))).containsExactly(entry("count", 0x1p64));
+            assertThat(encode(encoder, "up")).containsExactly(entry("count", "up"));
+            assertThat(encode(encoder, true)).containsExactly(entry("count", true));
+        }
+    }
+
+    @Test
+    public void handsNonScalarValueOverAsItIs() {
+        final Map<String, Object> value = map("a", 1L);
+
+        assertThat(encode(new GaugeEncoder(NonScalarGaugePolicy.RAW), value))
+                .containsExactly(entry("count", (Object) value));
+    }
+
+    @Test
+    public void skipsNonScalarValue() {
+        assertThat(encode(new GaugeEncoder(NonScalarGaugePolicy.SKIP), map("a", 1L))).isEmpty();
+        assertThat(encode(new GaugeEncoder(NonScalarGaugePolicy.SKIP), new Object[] { 1L })).isEmpty();
+    }
+
+    @Test
+    public void reportsNonScalarValueAsString() {
+        assertThat(encode(new GaugeEncoder(NonScalarGaugePolicy.TO_STRING), Arrays.asList(1, 2)))
+                .containsExactly(entry("count", "[1, 2]"));
+    }
+
+    @Test
+    public void flattensMapsCollectionsAndArrays() {
+        final GaugeEncoder encoder = new GaugeEncoder(NonScalarGaugePolicy.FLATTEN);
+
+        assertThat(encode(encoder, map("used", 3, "ratio", 0.5, "state", "ok", "missing", null)))
+                .containsExactly(entry("used", 3L), entry("ratio", 0.5), entry("state", "ok"));
+        assertThat(encode(encoder, Arrays.asList(1L, "b"))).containsExactly(entry("0", 1L), entry("1", "b"));
+        assertThat(encode(encoder, new int[] { 4, 5 })).containsExactly(entry("0", 4L), entry("1", 5L));
+        assertThat(encode(encoder, new Object())).containsOnlyKeys("count");
+    }
+
+    @Test
+    public void flattensNestedValuesAsStrings() {
+        final GaugeEncoder encoder = new GaugeEncoder(NonScalarGaugePolicy.FLATTEN);
+
+        assertThat(encode(encoder, map("pool", map("active", 1), "sizes", Arrays.asList(1, 2))))
+                .containsExactly(entry("pool", "{active=1}"), entry("sizes", "[1, 2]"));
+        assertThat(encode(encoder, Arrays.asList(Arrays.asList(1, 2), new int[0])))
+                .containsOnlyKeys("0", "1")
+                .containsEntry("0", "[1, 2]");
+    }
+
+    @Test
+    public void flattensCollectionsLongerThanCachedIndexKeys() {
+        final List<Long> value = new ArrayList<Long>();
+        for (long i = 0; i < 100; i++) {
+            value.add(i);
+        }
+
+        final Map<String, Object> flattened = encode(new GaugeEncoder(NonScalarGaugePolicy.FLATTEN), value);
+
+        assertThat(flattened).hasSize(100)
+                             .containsEntry("0", 0L)
+                             .containsEntry("63", 63L)
+                             .containsEntry("64", 64L)
+                             .containsEntry("99", 99L);
+    }
+
+    private Map<String, Object> encode(GaugeEncoder encoder, Object value) {
+        record.clear();
+        encoder.encode(record, value);
+        return new LinkedHashMap<String, Object>(record);
+    }
+
+    private static Map<String, Object> map(Object... entries) {
+        final Map<String, Object> map = new LinkedHashMap<String, Object>();
+        for (int i = 0; i < entries.length; i += 2) {
+            map.put((String) entries[i], entries[i + 1]);
+        }
+        return map;
+    }
+}
@@ -0,0 +1,148 @@
+package com.krrrr38.metrics.fluency;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+
+public class GaugeEvaluatorTest {
+    private static final long TIMEOUT = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final ManualClock clock = new ManualClock();
+    private final ManualExecutor executor = new ManualExecutor(clock);
+    private final Meter timeouts = new Meter();
+    private final GaugeEvaluator evaluator = new GaugeEvaluator(executor, TIMEOUT, 2, clock, timeouts);
+    private final TimedGauge gauge = new TimedGauge();
+
+    @Test
+    public void waitsForAllGaugesUntilSingleDeadline() {
+        gauge.nanos = 2 * TIMEOUT;
+        final TimedGauge fast = new TimedGauge();
+        fast.nanos = TIMEOUT / 2;
+        evaluator.startCycle();
+        for (int i = 0; i < 5; i++) {
+            evaluator.submit("slow" + i, gauge);
+        }
+        evaluator.submit("fast", fast);
+
+        for (int i = 0; i < 5; i++) {
+            assertThat(evaluator.evaluate("slow" + i)).isNull();
+        }
+        assertThat(evaluator.evaluate("fast")).isEqualTo(1L);
+
+        assertThat(clock.tick).isEqualTo(TIMEOUT);
+        assertThat(timeouts.getCount()).isEqualTo(5);
+    }
+
+    @Test
+    public void quarantinesGaugeAfterConsecutiveTimeouts() {
+        gauge.nanos = 2 * TIMEOUT;
+
+        assertThat(cycle()).isNull();
+        assertThat(evaluator.quarantined()).isZero();
+        assertThat(cycle()).isNull();
+        assertThat(evaluator.quarantined()).isEqualTo(1);
+        assertThat(executor.submitted).isEqualTo(2);
+
+        cycle();
+        assertThat(executor.submitted).isEqualTo(2);
+        assertThat(evaluator.quarantined()).isZero();
+        cycle();
+        assertThat(executor.submitted).isEqualTo(3);
+    }
+
+    @Test
+    public void doublesQuarantineUpTo64Cycles() {
+        gauge.nanos = 2 * TIMEOUT;
+        cycle();
+        final List<Integer> skipped = new ArrayList<Integer>();
+        int submitted = executor.submitted;
+        int cycles = 0;
+        while (skipped.size() < 9) {
+            cycle();
+            cycles++;
+            if (executor.submitted > submitted) {
+                submitted = executor.submitted;
+                skipped.add(cycles - 1);
+                cycles = 0;
+            }
+        }
+
+        assertThat(skipped).containsExactly(0, 1, 2, 4, 8, 16, 32, 64, 64);
+    }
+
+    @Test
+    public void releasesGaugeEvaluatedInTime() {
+        gauge.nanos = 2 * TIMEOUT;
+        cycle();
+        cycle();
+        cycle();
+        cycle();
+        assertThat(cycle()).isNull();
+        assertThat(evaluator.quarantined()).isEqualTo(1);
+
+        gauge.nanos = TIMEOUT / 2;
+        cycle();
+        assertThat(cycle()).isEqualTo(1L);
+        assertThat(evaluator.quarantined()).isZero();
+
+        // timeouts are counted from zero and the quarantine starts from a single cycle again
+        gauge.nanos = 2 * TIMEOUT;
+        cycle();
+        assertThat(evaluator.quarantined()).isZero();
+        cycle();
+        assertThat(evaluator.quarantined()).isEqualTo(1);
+        final int submitted = executor.submitted;
+        cycle();
+        cycle();
+        assertThat(executor.submitted).isEqualTo(submitted + 1);
+    }
+
+    @Test
+    public void skipsGaugeStillBeingEvaluated() {
+        gauge.nanos = 10 * TIMEOUT;
+        final GaugeEvaluator lenient = new GaugeEvaluator(executor, TIMEOUT, 0, clock, timeouts);
+        lenient.startCycle();
+        lenient.submit("gauge", gauge);
+        assertThat(lenient.evaluate("gauge")).isNull();
+
+        lenient.startCycle();
+        lenient.submit("gauge", gauge);
+        assertThat(lenient.evaluate("gauge")).isNull();
+        assertThat(executor.submitted).isEqualTo(1);
+
+        clock.tick += 10 * TIMEOUT;
+        lenient.startCycle();
+        lenient.submit("gauge", gauge);
+        assertThat(executor.submitted).isEqualTo(2);
+    }
+
+    /**
+     * Evaluates the gauge in a new reporting cycle, after its previous evaluation completed.
+     */
+    private Object cycle() {
+        clock.tick += TimeUnit.SECONDS.toNanos(1);
+        evaluator.startCycle();
+        evaluator.submit("gauge", gauge);
+        return evaluator.evaluate("gauge");
+    }
+
+    /**
+     * A gauge whose evaluation takes the given time of the {@link ManualClock}.
+     */
+    private final class TimedGauge implements Gauge<Long> {
+        private long nanos;
+
+        @Override
+        public Long getValue() {
+            clock.tick += nanos;
+            return 1L;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.krrrr38.metrics.fluency;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import com.codahale.metrics.Snapshot;
+
+public class IntervalReservoirTest {
+    @Test
+    public void snapshotsValuesSincePreviousSnapshot() {
+        final IntervalReservoir reservoir = new IntervalReservoir(4);
+        reservoir.update(1);
+        reservoir.update(2);
+
+        assertThat(reservoir.getSnapshot().getValues()).containsExactly(1, 2);
+        assertThat(reservoir.size()).isZero();
+        assertThat(reservoir.getSnapshot().size()).isZero();
+
+        reservoir.update(3);
+        assertThat(reservoir.getSnapshot().getValues()).containsExactly(3);
+    }
+
+    @Test
+    public void samplesUpToSizeValuesOfAnInterval() {
+        final IntervalReservoir reservoir = new IntervalReservoir(4);
+        for (int i = 0; i < 100; i++) {
+            reservoir.update(i);
+        }
+
+        final Snapshot snapshot = reservoir.getSnapshot();
+
+        assertThat(snapshot.size()).isEqualTo(4);
+        assertThat(snapshot.getMax()).isLessThan(100);
+        assertThat(reservoir.getSnapshot().size()).isZero();
+    }
+
+    @Test
+    public void losesNoConcurrentUpdatesAcrossSnapshots() throws InterruptedException {
+        final int writers = 4;
+        final int updates = 100000;
+        final IntervalReservoir reservoir = new IntervalReservoir(writers * updates);
+        final CountDownLatch done = new CountDownLatch(writers);
+        final List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < writers; i++) {
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < updates; j++) {
+                        reservoir.update(1);
+                    }
+                    done.countDown();
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+
+        long total = 0;
+        int snapshots = 0;
+        while (done.getCount() > 0) {
+            total += sum(reservoir.getSnapshot());
+            snapshots++;
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        total += sum(reservoir.getSnapshot());
+
+        assertThat(total).isEqualTo((long) writers * updates);
+        assertThat(snapshots).isPositive();
+    }
+
+    private static long sum(Snapshot snapshot) {
+        long sum = 0;
+        for (long value : snapshot.getValues()) {
+            sum += value;
+        }
+        return sum;
+    }
+}
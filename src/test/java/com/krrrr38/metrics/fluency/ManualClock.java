@@ -0,0 +1,21 @@
+package com.krrrr38.metrics.fluency;
+
+import com.codahale.metrics.Clock;
+
+/**
+ * A {@link Clock} whose tick and time only move when a test moves them.
+ */
+class ManualClock extends Clock {
+    long tick;
+    long millis;
+
+    @Override
+    public long getTick() {
+        return tick;
+    }
+
+    @Override
+    public long getTime() {
+        return millis;
+    }
+}
@@ -0,0 +1,122 @@
+package com.krrrr38.metrics.fluency;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * An {@link java.util.concurrent.ExecutorService} which runs tasks in parallel on the time line of a
+ * {@link ManualClock} instead of on threads, so tests of timeouts do not depend on the wall clock.
+ *
+ * A task runs on the submitting thread, and the time by which it moves the clock is its duration: the clock is
+ * moved back, and the task completes when the clock reaches its submission plus its duration. Waiting for a
+ * task moves the clock to its completion, or by the timeout if the task does not complete within it.
+ */
+class ManualExecutor extends AbstractExecutorService {
+    private final ManualClock clock;
+    int submitted;
+
+    ManualExecutor(ManualClock clock) {
+        this.clock = clock;
+    }
+
+    @Override
+    public <T> Future<T> submit(Callable<T> task) {
+        submitted++;
+        final long start = clock.tick;
+        try {
+            return new ManualFuture<T>(task.call(), null, clock.tick);
+        } catch (Exception e) {
+            return new ManualFuture<T>(null, e, clock.tick);
+        } finally {
+            clock.tick = start;
+        }
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        submit(Executors.callable(command));
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return false;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return false;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) {
+        return true;
+    }
+
+    private final class ManualFuture<T> implements Future<T> {
+        private final T value;
+        private final Exception failure;
+        private final long completionTick;
+        private boolean cancelled;
+
+        private ManualFuture(T value, Exception failure, long completionTick) {
+            this.value = value;
+            this.failure = failure;
+            this.completionTick = completionTick;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            cancelled = !isDone();
+            return cancelled;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public boolean isDone() {
+            return cancelled || clock.tick >= completionTick;
+        }
+
+        @Override
+        public T get() throws ExecutionException {
+            clock.tick = Math.max(clock.tick, completionTick);
+            return result();
+        }
+
+        @Override
+        public T get(long timeout, TimeUnit unit) throws ExecutionException, TimeoutException {
+            final long deadline = clock.tick + unit.toNanos(timeout);
+            if (deadline < completionTick) {
+                clock.tick = deadline;
+                throw new TimeoutException();
+            }
+            return get();
+        }
+
+        private T result() throws ExecutionException {
+            if (failure != null) {
+                throw new ExecutionException(failure);
+            }
+            return value;
+        }
+    }
+}
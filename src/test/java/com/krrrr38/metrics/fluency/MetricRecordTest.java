@@ -0,0 +1,35 @@
+package com.krrrr38.metrics.fluency;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+
+import org.junit.Test;
+import org.msgpack.core.MessageBufferPacker;
+import org.msgpack.core.MessagePack;
+import org.msgpack.core.MessageUnpacker;
+
+import com.codahale.metrics.MetricAttribute;
+
+public class MetricRecordTest {
+    @Test
+    public void writesRecordAsMessagePackMap() throws IOException {
+        final MetricRecord record = new MetricRecord();
+        record.put(MetricAttribute.COUNT, 3L);
+        record.put(MetricAttribute.MEAN, 1.5);
+        record.put("delta", 2L);
+
+        final MessageBufferPacker packer = MessagePack.newDefaultBufferPacker();
+        record.writeTo(packer);
+        final MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(packer.toByteArray());
+
+        assertThat(unpacker.unpackMapHeader()).isEqualTo(3);
+        assertThat(unpacker.unpackString()).isEqualTo("mean");
+        assertThat(unpacker.unpackDouble()).isEqualTo(1.5);
+        assertThat(unpacker.unpackString()).isEqualTo("count");
+        assertThat(unpacker.unpackLong()).isEqualTo(3L);
+        assertThat(unpacker.unpackString()).isEqualTo("delta");
+        assertThat(unpacker.unpackLong()).isEqualTo(2L);
+        assertThat(unpacker.hasNext()).isFalse();
+    }
+}
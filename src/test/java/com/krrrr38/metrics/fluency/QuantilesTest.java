@@ -0,0 +1,33 @@
+package com.krrrr38.metrics.fluency;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+public class QuantilesTest {
+    private final FluencyReporter.Builder builder = FluencyReporter.forRegistry(new MetricRegistry());
+
+    @Test
+    public void keysQuantilesByDigitsOfPercentage() {
+        assertThat(Quantiles.key(0.9)).isEqualTo("p90");
+        assertThat(Quantiles.key(0.999)).isEqualTo("p999");
+        assertThat(Quantiles.key(0.9999)).isEqualTo("p9999");
+    }
+
+    @Test
+    public void acceptsRepeatedQuantilesAndPercentileAttributes() {
+        builder.percentiles(0.9, 0.9, 0.99, 0.999, 0.9999);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsQuantilesWithSameKey() {
+        builder.percentiles(0.9999, 0.09999);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsQuantilesWithKeyOfPercentileAttribute() {
+        builder.percentiles(0.0999);
+    }
+}
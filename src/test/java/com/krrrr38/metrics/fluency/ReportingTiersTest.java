@@ -0,0 +1,74 @@
+package com.krrrr38.metrics.fluency;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+
+public class ReportingTiersTest {
+    private static final long PERIOD = 1000;
+
+    private final Counter fast = new Counter();
+    private final Counter slow = new Counter();
+
+    @Test
+    public void skipsSlowTierBetweenItsPeriods() {
+        final ReportingTiers tiers = tiers(5 * PERIOD);
+        tiers.onCounterAdded("fast", fast);
+        tiers.onCounterAdded("slow.counter", slow);
+
+        final StringBuilder reported = new StringBuilder();
+        for (long now = 0; now < 12 * PERIOD; now += PERIOD) {
+            tiers.tick(now, PERIOD / 2);
+            assertThat(tiers.isDue("fast", fast)).isTrue();
+            reported.append(tiers.isDue("slow.counter", slow) ? 'x' : '.');
+        }
+
+        assertThat(reported.toString()).isEqualTo("x....x....x.");
+    }
+
+    @Test
+    public void reportsSlowTierWhenReportFallsWithinToleranceBeforeItsPeriod() {
+        final ReportingTiers tiers = tiers(5 * PERIOD);
+        tiers.onCounterAdded("slow.counter", slow);
+
+        tiers.tick(10 * PERIOD + 100, PERIOD / 2);
+        assertThat(tiers.isDue("slow.counter", slow)).isTrue();
+        // early by less than the tolerance, so it counts as the next multiple of the period
+        tiers.tick(15 * PERIOD - 400, PERIOD / 2);
+        assertThat(tiers.isDue("slow.counter", slow)).isTrue();
+        // late reports within the same multiple are not due again
+        tiers.tick(16 * PERIOD + 300, PERIOD / 2);
+        assertThat(tiers.isDue("slow.counter", slow)).isFalse();
+        // early by more than the tolerance
+        tiers.tick(20 * PERIOD - 600, PERIOD / 2);
+        assertThat(tiers.isDue("slow.counter", slow)).isFalse();
+        tiers.tick(20 * PERIOD + 200, PERIOD / 2);
+        assertThat(tiers.isDue("slow.counter", slow)).isTrue();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsPeriodsBelowOneMillisecond() {
+        FluencyReporter.forRegistry(new MetricRegistry())
+                       .reportEvery(500, TimeUnit.MICROSECONDS, MetricFilter.ALL);
+    }
+
+    private static ReportingTiers tiers(long slowPeriodMillis) {
+        final Map<MetricFilter, Long> periods = new LinkedHashMap<MetricFilter, Long>();
+        periods.put(new MetricFilter() {
+            @Override
+            public boolean matches(String name, Metric metric) {
+                return name.startsWith("slow.");
+            }
+        }, slowPeriodMillis);
+        return new ReportingTiers(periods);
+    }
+}
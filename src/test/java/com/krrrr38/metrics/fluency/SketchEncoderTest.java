@@ -0,0 +1,64 @@
+package com.krrrr38.metrics.fluency;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.msgpack.core.MessagePack;
+import org.msgpack.core.MessageUnpacker;
+
+import com.codahale.metrics.UniformSnapshot;
+import com.codahale.metrics.WeightedSnapshot;
+import com.codahale.metrics.WeightedSnapshot.WeightedSample;
+
+public class SketchEncoderTest {
+    private final SketchEncoder encoder = new SketchEncoder(0.01, 2048);
+
+    @Test
+    public void scalesBucketCountsToNumberOfUpdates() throws IOException {
+        final long[] values = new long[100];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i - 10;
+        }
+
+        final byte[] sketch = encoder.encode(new UniformSnapshot(values), 1, 1000);
+
+        assertThat(total(sketch)).isEqualTo(1000);
+    }
+
+    @Test
+    public void honoursWeightsOfWeightedSnapshots() throws IOException {
+        final WeightedSnapshot snapshot = new WeightedSnapshot(Arrays.asList(new WeightedSample(10, 9),
+                                                                             new WeightedSample(1000, 1)));
+
+        final byte[] sketch = encoder.encode(snapshot, 1, 2);
+
+        final MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(sketch);
+        unpacker.unpackArrayHeader();
+        unpacker.unpackDouble();
+        assertThat(unpacker.unpackLong()).isZero();
+        assertThat(unpacker.unpackArrayHeader()).isEqualTo(2);
+        unpacker.unpackInt();
+        assertThat(unpacker.unpackLong()).isEqualTo(2);
+    }
+
+    /**
+     * Returns the sum of the counts of a sketch.
+     */
+    static long total(byte[] sketch) throws IOException {
+        final MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(sketch);
+        unpacker.unpackArrayHeader();
+        unpacker.unpackDouble();
+        long total = unpacker.unpackLong();
+        for (int sign = 0; sign < 2; sign++) {
+            final int length = unpacker.unpackArrayHeader();
+            for (int i = 0; i < length; i += 2) {
+                unpacker.unpackInt();
+                total += unpacker.unpackLong();
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,164 @@
+package com.krrrr38.metrics.fluency;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.codahale.metrics.Meter;
+
+public class SpillBufferTest {
+    private static final int SEGMENT_BYTES = 4096;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final RecordingSink downstream = new RecordingSink();
+    private final ManualClock clock = new ManualClock();
+    private final Meter spilled = new Meter();
+    private final Meter replayed = new Meter();
+    private final Meter dropped = new Meter();
+
+    @Test
+    public void replaysSpilledRecordsInOrderOnceDownstreamRecovers() throws IOException {
+        final SpillBuffer buffer = spillBuffer();
+        final Map<String, Object> timer = new LinkedHashMap<String, Object>();
+        timer.put("count", 3L);
+        timer.put("mean", 1.5);
+        timer.put("delta", 2L);
+        timer.put("buckets", new long[] { 1, 2, 3 });
+        timer.put("sketch", new byte[] { 4, 5 });
+
+        downstream.failing = true;
+        buffer.emit("metrics.timer", 1000L, timer);
+        buffer.emit("metrics.counter", 2000L, record(7L));
+        downstream.failing = false;
+        clock.tick += TimeUnit.SECONDS.toNanos(2);
+        buffer.emit("metrics.counter", 3000L, record(8L));
+
+        assertThat(spilled.getCount()).isEqualTo(2);
+        assertThat(replayed.getCount()).isEqualTo(2);
+        assertThat(downstream.tags).containsExactly("metrics.timer", "metrics.counter", "metrics.counter");
+        assertThat(downstream.timestamps).containsExactly(1000L, 2000L, 3000L);
+        final Map<String, Object> replayedTimer = downstream.records.get(0);
+        assertThat(replayedTimer.get("count")).isEqualTo(3L);
+        assertThat(replayedTimer.get("mean")).isEqualTo(1.5);
+        assertThat(replayedTimer.get("delta")).isEqualTo(2L);
+        assertThat((long[]) replayedTimer.get("buckets")).containsExactly(1, 2, 3);
+        assertThat((byte[]) replayedTimer.get("sketch")).containsExactly(4, 5);
+        assertThat(downstream.records.get(1).get("count")).isEqualTo(7L);
+        assertThat(segmentFiles()).isEmpty();
+    }
+
+    @Test
+    public void replaysSegmentsLeftByPreviousProcess() throws IOException {
+        final SpillBuffer previous = spillBuffer();
+        downstream.failing = true;
+        previous.emit("metrics.counter", 1000L, record(1L));
+        previous.emit("metrics.counter", 2000L, record(2L));
+        previous.close();
+        downstream.failing = false;
+
+        spillBuffer().emit("metrics.counter", 3000L, record(3L));
+
+        assertThat(downstream.timestamps).containsExactly(1000L, 2000L, 3000L);
+        assertThat(replayed.getCount()).isEqualTo(2);
+        assertThat(dropped.getCount()).isZero();
+        assertThat(segmentFiles()).isEmpty();
+    }
+
+    @Test
+    public void countsRecordsOfTruncatedSegmentAsDropped() throws IOException {
+        final SpillBuffer previous = spillBuffer();
+        downstream.failing = true;
+        previous.emit("metrics.counter", 1000L, record(1L));
+        previous.emit("metrics.counter", 2000L, record(2L));
+        previous.emit("metrics.counter", 3000L, record(3L));
+        previous.close();
+        downstream.failing = false;
+        truncateLastRecord(segmentFiles()[0]);
+
+        spillBuffer().emit("metrics.counter", 4000L, record(4L));
+
+        assertThat(downstream.timestamps).containsExactly(1000L, 2000L, 4000L);
+        assertThat(dropped.getCount()).isEqualTo(1);
+        assertThat(segmentFiles()).isEmpty();
+    }
+
+    @Test
+    public void shrinksSegmentsToSizeCap() throws IOException {
+        final SpillBuffer buffer = new SpillBuffer(downstream, folder.getRoot(), SEGMENT_BYTES, SEGMENT_BYTES / 4,
+                                                   clock, spilled, replayed, dropped, new Meter());
+        downstream.failing = true;
+        for (int i = 0; i < 100; i++) {
+            buffer.emit("metrics.counter", 1000L * i, record(i));
+        }
+        buffer.close();
+
+        long bytes = 0;
+        for (File segment : segmentFiles()) {
+            bytes += segment.length();
+        }
+        assertThat(bytes).isLessThanOrEqualTo(SEGMENT_BYTES / 4);
+        assertThat(dropped.getCount()).isPositive();
+        assertThat(spilled.getCount()).isEqualTo(100);
+    }
+
+    private SpillBuffer spillBuffer() throws IOException {
+        return new SpillBuffer(downstream, folder.getRoot(), SEGMENT_BYTES, SEGMENT_BYTES * 4, clock, spilled,
+                               replayed, dropped, new Meter());
+    }
+
+    private File[] segmentFiles() {
+        return folder.getRoot().listFiles();
+    }
+
+    /**
+     * Cuts the segment before the last non-zero byte, which ends the last record because its count is not zero.
+     */
+    private static void truncateLastRecord(File segment) throws IOException {
+        final RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        try {
+            long end = file.length();
+            do {
+                file.seek(--end);
+            } while (file.read() == 0);
+            file.setLength(end);
+        } finally {
+            file.close();
+        }
+    }
+
+    private static Map<String, Object> record(long count) {
+        final Map<String, Object> record = new LinkedHashMap<String, Object>();
+        record.put("count", count);
+        return record;
+    }
+
+    private static final class RecordingSink implements RecordSink {
+        private final List<String> tags = new ArrayList<String>();
+        private final List<Long> timestamps = new ArrayList<Long>();
+        private final List<Map<String, Object>> records = new ArrayList<Map<String, Object>>();
+        private boolean failing;
+
+        @Override
+        public void emit(String tag, long timestamp, Map<String, Object> data) throws IOException {
+            if (failing) {
+                throw new IOException("rejected");
+            }
+            tags.add(tag);
+            timestamps.add(timestamp);
+            records.add(new LinkedHashMap<String, Object>(data));
+        }
+    }
+}
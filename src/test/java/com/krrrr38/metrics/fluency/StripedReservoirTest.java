@@ -0,0 +1,52 @@
+package com.krrrr38.metrics.fluency;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import org.junit.Test;
+
+import com.codahale.metrics.Snapshot;
+
+public class StripedReservoirTest {
+    @Test
+    public void snapshotsValuesSincePreviousSnapshot() {
+        final StripedReservoir reservoir = new StripedReservoir(1028, 4);
+        for (int i = 1; i <= 1000; i++) {
+            reservoir.update(i * 1000L);
+        }
+
+        final Snapshot snapshot = reservoir.getSnapshot();
+
+        assertThat(snapshot.size()).isEqualTo(1000);
+        assertThat(snapshot.getMedian()).isCloseTo(500000, within(500000 * 0.03));
+        assertThat(snapshot.get99thPercentile()).isCloseTo(990000, within(990000 * 0.03));
+        assertThat(reservoir.size()).isZero();
+        assertThat(reservoir.getSnapshot().size()).isZero();
+    }
+
+    @Test
+    public void roundsStripesUpToPowerOfTwoAndClampsThem() {
+        assertThat(new StripedReservoir(1028, 1).stripes()).isEqualTo(1);
+        assertThat(new StripedReservoir(1028, 3).stripes()).isEqualTo(4);
+        assertThat(new StripedReservoir(1028, 64).stripes()).isEqualTo(64);
+        assertThat(new StripedReservoir(1028, 65).stripes()).isEqualTo(64);
+        assertThat(new StripedReservoir(1028, Integer.MAX_VALUE).stripes()).isEqualTo(64);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNoStripes() {
+        new StripedReservoir(1028, 0);
+    }
+
+    @Test
+    public void countsValuesAboveMaximumAsMaximum() {
+        final StripedReservoir reservoir = new StripedReservoir(1028, 1, 1000);
+        reservoir.update(10);
+        reservoir.update(Long.MAX_VALUE);
+
+        final Snapshot snapshot = reservoir.getSnapshot();
+
+        assertThat(snapshot.getMin()).isEqualTo(10);
+        assertThat((double) snapshot.getMax()).isCloseTo(1000, within(1000 * 0.03));
+    }
+}
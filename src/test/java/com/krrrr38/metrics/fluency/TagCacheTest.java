@@ -0,0 +1,40 @@
+package com.krrrr38.metrics.fluency;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+public class TagCacheTest {
+    private final MetricRegistry registry = new MetricRegistry();
+    private final TagCache tags = new TagCache("metrics");
+
+    @Test
+    public void cachesTagsOfRegisteredMetrics() {
+        registry.counter("requests");
+        registry.addListener(tags);
+        registry.timer("latency");
+
+        assertThat(tags.tag("requests")).isEqualTo("metrics.requests").isSameAs(tags.tag("requests"));
+        assertThat(tags.tag("latency")).isEqualTo("metrics.latency").isSameAs(tags.tag("latency"));
+    }
+
+    @Test
+    public void buildsTagsOfUnregisteredMetricsWithoutCachingThem() {
+        registry.addListener(tags);
+
+        assertThat(tags.tag("requests")).isEqualTo("metrics.requests").isNotSameAs(tags.tag("requests"));
+    }
+
+    @Test
+    public void evictsTagsOfRemovedMetrics() {
+        registry.addListener(tags);
+        registry.meter("requests");
+        final String cached = tags.tag("requests");
+
+        registry.remove("requests");
+
+        assertThat(tags.tag("requests")).isEqualTo("metrics.requests").isNotSameAs(cached);
+    }
+}